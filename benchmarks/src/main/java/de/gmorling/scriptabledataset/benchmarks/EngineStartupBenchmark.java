@@ -0,0 +1,74 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultDataSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.gmorling.scriptabledataset.ScriptableDataSet;
+import de.gmorling.scriptabledataset.ScriptableDataSetConfig;
+
+/**
+ * Measures the creation of a scriptable data set and the evaluation of its
+ * first script, which includes loading the scripting engine.
+ * 
+ * @author Gunnar Morling
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EngineStartupBenchmark {
+
+	@Param({ "jruby", "groovy", "javascript" })
+	public String language;
+
+	private DefaultDataSet wrapped;
+
+	@Setup
+	public void createDataSet() throws DataSetException {
+
+		wrapped = new DefaultDataSet(Tables.createTable(1, Tables.scriptFor(language)));
+	}
+
+	@Benchmark
+	public Object firstScript() throws DataSetException {
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(wrapped, new ScriptableDataSetConfig(language, language + ":"));
+
+		try {
+			return dataSet.getTable(Tables.TABLE_NAME).getValue(0, "addr");
+		}
+		finally {
+			dataSet.close();
+		}
+	}
+}
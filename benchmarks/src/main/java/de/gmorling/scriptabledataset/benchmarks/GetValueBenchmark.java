@@ -0,0 +1,96 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.ITable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.gmorling.scriptabledataset.ScriptableDataSet;
+import de.gmorling.scriptabledataset.ScriptableDataSetConfig;
+
+/**
+ * Measures reading literal and scripted fields from a scriptable table.
+ * 
+ * @author Gunnar Morling
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetValueBenchmark {
+
+	private static final int ROWS = 1000;
+
+	@Param({ "jruby", "groovy", "javascript" })
+	public String language;
+
+	private ScriptableDataSet dataSet;
+
+	private ITable table;
+
+	private int row;
+
+	@Setup
+	public void createTable() throws DataSetException {
+
+		dataSet = new ScriptableDataSet(
+			new DefaultDataSet(Tables.createTable(ROWS, Tables.scriptFor(language))),
+			new ScriptableDataSetConfig(language, language + ":"));
+
+		table = dataSet.getTable(Tables.TABLE_NAME);
+	}
+
+	@TearDown
+	public void closeDataSet() {
+
+		dataSet.close();
+	}
+
+	@Benchmark
+	public Object literalField() throws DataSetException {
+
+		return table.getValue(nextRow(), "num");
+	}
+
+	@Benchmark
+	public Object scriptedField() throws DataSetException {
+
+		return table.getValue(nextRow(), "addr");
+	}
+
+	private int nextRow() {
+
+		row = (row + 1) % ROWS;
+		return row;
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.script.ScriptEngine;
+
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.ITable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.gmorling.scriptabledataset.ScriptableDataSet;
+import de.gmorling.scriptabledataset.ScriptableDataSetConfig;
+import de.gmorling.scriptabledataset.handlers.AbstractScriptInvocationHandler;
+import de.gmorling.scriptabledataset.handlers.ScriptInvocationHandler;
+
+/**
+ * Measures reading a scripted field with a growing number of custom handlers.
+ * The field is evaluated by the built-in "seq" language, which merely
+ * computes a number from the row index, so the cost of the handlers isn't
+ * hidden by the cost of a scripting runtime. The custom handlers either implement
+ * both phases or extend AbstractScriptInvocationHandler without overriding
+ * any phase, in which case they are skipped and the time per field should
+ * not depend on their number. No standard handlers are registered for this
+ * language.
+ * 
+ * @author Gunnar Morling
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandlerChainBenchmark {
+
+	@Param({ "0", "1", "4", "16" })
+	public int handlerCount;
+
+	@Param({ "false", "true" })
+	public boolean passThrough;
+
+	private ScriptableDataSet dataSet;
+
+	private ITable table;
+
+	@Setup
+	public void createTable() throws DataSetException {
+
+		List<ScriptInvocationHandler> handlers = new ArrayList<ScriptInvocationHandler>();
+
+		for (int i = 0; i < handlerCount; i++) {
+			handlers.add(passThrough ? new PassThroughInvocationHandler() : new IdentityInvocationHandler());
+		}
+
+		dataSet = new ScriptableDataSet(
+			new DefaultDataSet(Tables.createTable(1, "seq:")),
+			new ScriptableDataSetConfig("seq", "seq:", handlers));
+
+		table = dataSet.getTable(Tables.TABLE_NAME);
+	}
+
+	@TearDown
+	public void closeDataSet() {
+
+		dataSet.close();
+	}
+
+	@Benchmark
+	public Object scriptedField() throws DataSetException {
+
+		return table.getValue(0, "addr");
+	}
+
+	/**
+	 * A "seq" handler, that returns scripts and results unchanged.
+	 */
+	public static class IdentityInvocationHandler implements ScriptInvocationHandler {
+
+		public String getLanguageName() {
+			return "seq";
+		}
+
+		public String preInvoke(String script) {
+			return script;
+		}
+
+		public Object postInvoke(Object object) {
+			return object;
+		}
+
+		public void setScriptEngine(ScriptEngine engine) {
+
+		}
+	}
+
+	/**
+	 * A "seq" handler, that inherits the pass-through phases of its base
+	 * class.
+	 */
+	public static class PassThroughInvocationHandler extends AbstractScriptInvocationHandler {
+
+		public String getLanguageName() {
+			return "seq";
+		}
+	}
+}
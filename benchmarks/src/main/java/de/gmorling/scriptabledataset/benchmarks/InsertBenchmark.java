@@ -0,0 +1,108 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset.benchmarks;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.operation.DatabaseOperation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.gmorling.scriptabledataset.ScriptableDataSet;
+import de.gmorling.scriptabledataset.ScriptableDataSetConfig;
+
+/**
+ * Measures inserting a scriptable data set into an in-memory Derby database
+ * using DBUnit's INSERT operation.
+ * 
+ * @author Gunnar Morling
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class InsertBenchmark {
+
+	@Param({ "10000", "100000", "1000000" })
+	public int rows;
+
+	private Connection connection;
+
+	private IDatabaseConnection dbUnitConnection;
+
+	private DefaultDataSet wrapped;
+
+	@Setup
+	public void createDataSet() throws Exception {
+
+		connection = DriverManager.getConnection("jdbc:derby:memory:benchmark;create=true");
+		connection.setAutoCommit(false);
+
+		dbUnitConnection = new DatabaseConnection(connection);
+
+		wrapped = new DefaultDataSet(Tables.createTable(rows, Tables.scriptFor("groovy")));
+	}
+
+	@Setup(Level.Invocation)
+	public void createTable() throws SQLException {
+
+		connection.createStatement().execute("create table location(num int, addr varchar(40))");
+	}
+
+	@TearDown(Level.Invocation)
+	public void dropTable() throws SQLException {
+
+		connection.rollback();
+	}
+
+	@TearDown
+	public void closeConnection() throws SQLException {
+
+		dbUnitConnection.close();
+	}
+
+	@Benchmark
+	public void insert() throws Exception {
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(wrapped, new ScriptableDataSetConfig("groovy", "groovy:"));
+
+		try {
+			DatabaseOperation.INSERT.execute(dbUnitConnection, dataSet);
+		}
+		finally {
+			dataSet.close();
+		}
+	}
+}
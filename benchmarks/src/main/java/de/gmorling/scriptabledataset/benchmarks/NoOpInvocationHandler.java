@@ -0,0 +1,44 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset.benchmarks;
+
+import javax.script.ScriptEngine;
+
+import de.gmorling.scriptabledataset.handlers.ScriptInvocationHandler;
+
+/**
+ * A Groovy handler, that returns scripts and results unchanged.
+ * 
+ * @author Gunnar Morling
+ */
+public class NoOpInvocationHandler implements ScriptInvocationHandler {
+
+	public String getLanguageName() {
+		return "groovy";
+	}
+
+	public String preInvoke(String script) {
+		return script;
+	}
+
+	public Object postInvoke(Object object) {
+		return object;
+	}
+
+	public void setScriptEngine(ScriptEngine engine) {
+
+	}
+}
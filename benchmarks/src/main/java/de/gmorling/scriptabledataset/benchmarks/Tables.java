@@ -0,0 +1,71 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset.benchmarks;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultTable;
+import org.dbunit.dataset.datatype.DataType;
+
+/**
+ * Creates the tables used by the benchmarks.
+ * 
+ * @author Gunnar Morling
+ */
+class Tables {
+
+	static final String TABLE_NAME = "location";
+
+	private Tables() {
+	}
+
+	/**
+	 * Creates a table with a literal column "num" and a scripted column
+	 * "addr", containing the given script in each row.
+	 * 
+	 * @param rows
+	 *            The number of rows.
+	 * @param script
+	 *            The script, including its prefix.
+	 * @return A new table.
+	 * @throws DataSetException
+	 *             In case the table couldn't be created.
+	 */
+	static DefaultTable createTable(int rows, String script) throws DataSetException {
+
+		DefaultTable table = new DefaultTable(
+			TABLE_NAME,
+			new Column[] { new Column("num", DataType.INTEGER), new Column("addr", DataType.VARCHAR) });
+
+		for (int i = 0; i < rows; i++) {
+			table.addRow(new Object[] { Integer.valueOf(i), script });
+		}
+
+		return table;
+	}
+
+	/**
+	 * Returns a script evaluating to a string in the given language.
+	 * 
+	 * @param language
+	 *            One of "jruby", "groovy" or "javascript".
+	 * @return A script with the language's name as prefix.
+	 */
+	static String scriptFor(String language) {
+
+		return language + ":'Webster ' + 'Street'";
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.SimpleScriptContext;
+
+/**
+ * A script context exposing additional bindings in the global scope, while
+ * sharing the engine scope and the streams of an engine's default context.
+ * Other than {@link SimpleScriptContext}, which creates new console readers
+ * and writers upon instantiation, this context is cheap to create, so a new
+ * one can be used for each evaluated field.
+ * 
+ * @author Gunnar Morling
+ */
+class BindingsScriptContext implements ScriptContext {
+
+	private static final List<Integer> SCOPES = Collections.unmodifiableList(Arrays.asList(ENGINE_SCOPE, GLOBAL_SCOPE));
+
+	private Bindings engineScope;
+
+	private Bindings globalScope;
+
+	private Reader reader;
+
+	private Writer writer;
+
+	private Writer errorWriter;
+
+	/**
+	 * Creates a new BindingsScriptContext.
+	 * 
+	 * @param defaultContext
+	 *            The context providing engine scope and streams. May not be
+	 *            null.
+	 * @param bindings
+	 *            The bindings to be used as global scope. May be null.
+	 */
+	BindingsScriptContext(ScriptContext defaultContext, Bindings bindings) {
+
+		this.engineScope = defaultContext.getBindings(ENGINE_SCOPE);
+		this.globalScope = bindings;
+		this.reader = defaultContext.getReader();
+		this.writer = defaultContext.getWriter();
+		this.errorWriter = defaultContext.getErrorWriter();
+	}
+
+	public Bindings getBindings(int scope) {
+
+		switch (scope) {
+		case ENGINE_SCOPE:
+			return engineScope;
+		case GLOBAL_SCOPE:
+			return globalScope;
+		default:
+			throw new IllegalArgumentException("Invalid scope value: " + scope);
+		}
+	}
+
+	public void setBindings(Bindings bindings, int scope) {
+
+		switch (scope) {
+		case ENGINE_SCOPE:
+			if (bindings == null) {
+				throw new NullPointerException("Engine scope bindings may not be null.");
+			}
+			engineScope = bindings;
+			break;
+		case GLOBAL_SCOPE:
+			globalScope = bindings;
+			break;
+		default:
+			throw new IllegalArgumentException("Invalid scope value: " + scope);
+		}
+	}
+
+	public Object getAttribute(String name) {
+
+		checkName(name);
+
+		if (engineScope.containsKey(name)) {
+			return engineScope.get(name);
+		}
+		if (globalScope != null && globalScope.containsKey(name)) {
+			return globalScope.get(name);
+		}
+
+		return null;
+	}
+
+	public Object getAttribute(String name, int scope) {
+
+		checkName(name);
+
+		Bindings bindings = getBindings(scope);
+
+		return bindings != null ? bindings.get(name) : null;
+	}
+
+	public void setAttribute(String name, Object value, int scope) {
+
+		checkName(name);
+
+		Bindings bindings = getBindings(scope);
+
+		if (bindings != null) {
+			bindings.put(name, value);
+		}
+	}
+
+	public Object removeAttribute(String name, int scope) {
+
+		checkName(name);
+
+		Bindings bindings = getBindings(scope);
+
+		return bindings != null ? bindings.remove(name) : null;
+	}
+
+	public int getAttributesScope(String name) {
+
+		checkName(name);
+
+		if (engineScope.containsKey(name)) {
+			return ENGINE_SCOPE;
+		}
+		if (globalScope != null && globalScope.containsKey(name)) {
+			return GLOBAL_SCOPE;
+		}
+
+		return -1;
+	}
+
+	public Reader getReader() {
+
+		return reader;
+	}
+
+	public void setReader(Reader reader) {
+
+		this.reader = reader;
+	}
+
+	public Writer getWriter() {
+
+		return writer;
+	}
+
+	public void setWriter(Writer writer) {
+
+		this.writer = writer;
+	}
+
+	public Writer getErrorWriter() {
+
+		return errorWriter;
+	}
+
+	public void setErrorWriter(Writer writer) {
+
+		this.errorWriter = writer;
+	}
+
+	public List<Integer> getScopes() {
+
+		return SCOPES;
+	}
+
+	private void checkName(String name) {
+
+		if (name == null) {
+			throw new NullPointerException("Attribute name may not be null.");
+		}
+		if (name.length() == 0) {
+			throw new IllegalArgumentException("Attribute name may not be empty.");
+		}
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Timestamp;
+import java.util.UUID;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+/**
+ * The engine of the built-in languages described at
+ * {@link BuiltInScriptEngineFactory}. Expressions are parsed once when they
+ * are compiled, evaluation doesn't involve any scripting runtime. Sequences
+ * and time stamps are computed from the index of the field's row given by
+ * {@link ScriptableTable#ROW_INDEX_BINDING}, so their values don't depend on
+ * the order of evaluation. An engine may be used by several threads at once.
+ * 
+ * @author Gunnar Morling
+ */
+class BuiltInScriptEngine extends AbstractScriptEngine implements Compilable {
+
+	private final BuiltInScriptEngineFactory factory;
+
+	/**
+	 * The time stamp "now:" refers to, which is the same for all fields
+	 * evaluated by this engine.
+	 */
+	private final long now = System.currentTimeMillis();
+
+	BuiltInScriptEngine(BuiltInScriptEngineFactory factory) {
+
+		this.factory = factory;
+	}
+
+	public Object eval(String script, ScriptContext context) throws ScriptException {
+
+		return compile(script).eval(context);
+	}
+
+	public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+
+		return compile(reader).eval(context);
+	}
+
+	public CompiledScript compile(String script) throws ScriptException {
+
+		String expression = script.trim();
+		String language = factory.getLanguageName();
+
+		try {
+			int separator = expression.indexOf(',');
+			String first = separator == -1 ? expression : expression.substring(0, separator).trim();
+			String second = separator == -1 ? null : expression.substring(separator + 1).trim();
+
+			if (language.equals("seq")) {
+				return new SequenceScript(first.length() == 0 ? 1 : Long.parseLong(first), second == null ? 1 : Long.parseLong(second));
+			}
+			else if (language.equals("uuid")) {
+
+				if (expression.length() != 0) {
+					throw new ScriptException("uuid: doesn't take any arguments, but was given \"" + expression + "\".");
+				}
+
+				return new UuidScript();
+			}
+			else {
+				return new TimestampScript(parseOffset(first), second == null ? 0 : parseOffset(second));
+			}
+		}
+		catch (NumberFormatException e) {
+			throw new ScriptException("Invalid " + language + ": expression \"" + expression + "\".");
+		}
+	}
+
+	public CompiledScript compile(Reader reader) throws ScriptException {
+
+		StringBuilder script = new StringBuilder();
+		char[] buffer = new char[256];
+
+		try {
+			for (int read = reader.read(buffer); read != -1; read = reader.read(buffer)) {
+				script.append(buffer, 0, read);
+			}
+		}
+		catch (IOException e) {
+			throw new ScriptException(e);
+		}
+
+		return compile(script.toString());
+	}
+
+	public Bindings createBindings() {
+
+		return new SimpleBindings();
+	}
+
+	public ScriptEngineFactory getFactory() {
+
+		return factory;
+	}
+
+	/**
+	 * Parses an offset such as "-14d" or "+2h" into milliseconds.
+	 */
+	private static long parseOffset(String expression) {
+
+		if (expression.length() == 0) {
+			return 0;
+		}
+
+		int unitStart = expression.length();
+
+		while (unitStart > 0 && Character.isLetter(expression.charAt(unitStart - 1))) {
+			unitStart--;
+		}
+
+		String number = expression.substring(0, unitStart).trim();
+		long amount = Long.parseLong(number.startsWith("+") ? number.substring(1) : number);
+		String unit = expression.substring(unitStart);
+
+		if (unit.equals("ms")) {
+			return amount;
+		}
+		else if (unit.equals("s")) {
+			return amount * 1000L;
+		}
+		else if (unit.equals("m")) {
+			return amount * 60L * 1000L;
+		}
+		else if (unit.equals("h")) {
+			return amount * 60L * 60L * 1000L;
+		}
+		else if (unit.equals("d")) {
+			return amount * 24L * 60L * 60L * 1000L;
+		}
+
+		throw new NumberFormatException("Unknown unit " + unit);
+	}
+
+	/**
+	 * Returns the index of the row being evaluated.
+	 * 
+	 * @throws ScriptException
+	 *             If the given context doesn't contain a row index, e.g. for
+	 *             setup scripts.
+	 */
+	private long getRowIndex(ScriptContext context) throws ScriptException {
+
+		Object rowIndex = context.getAttribute(ScriptableTable.ROW_INDEX_BINDING);
+
+		if (!(rowIndex instanceof Number)) {
+			throw new ScriptException(factory.getLanguageName() + ": requires the index of a row, but none is given.");
+		}
+
+		return ((Number) rowIndex).longValue();
+	}
+
+	/**
+	 * The start value plus the row index times the step.
+	 */
+	private class SequenceScript extends CompiledScript {
+
+		private final long start;
+
+		private final long step;
+
+		SequenceScript(long start, long step) {
+
+			this.start = start;
+			this.step = step;
+		}
+
+		@Override
+		public Object eval(ScriptContext context) throws ScriptException {
+
+			return start + getRowIndex(context) * step;
+		}
+
+		@Override
+		public ScriptEngine getEngine() {
+
+			return BuiltInScriptEngine.this;
+		}
+	}
+
+	private class UuidScript extends CompiledScript {
+
+		@Override
+		public Object eval(ScriptContext context) {
+
+			return UUID.randomUUID().toString();
+		}
+
+		@Override
+		public ScriptEngine getEngine() {
+
+			return BuiltInScriptEngine.this;
+		}
+	}
+
+	/**
+	 * The time stamp of this engine plus the offset and the row index times
+	 * the step, if any.
+	 */
+	private class TimestampScript extends CompiledScript {
+
+		private final long offset;
+
+		private final long step;
+
+		TimestampScript(long offset, long step) {
+
+			this.offset = offset;
+			this.step = step;
+		}
+
+		@Override
+		public Object eval(ScriptContext context) throws ScriptException {
+
+			return new Timestamp(now + offset + (step != 0 ? getRowIndex(context) * step : 0));
+		}
+
+		@Override
+		public ScriptEngine getEngine() {
+
+			return BuiltInScriptEngine.this;
+		}
+	}
+}
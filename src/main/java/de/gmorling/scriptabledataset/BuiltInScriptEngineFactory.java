@@ -0,0 +1,167 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+/**
+ * <p>
+ * The factory of the built-in languages, which are evaluated by plain Java
+ * code instead of a scripting engine:
+ * </p>
+ * <ul>
+ * <li><b>seq</b>: a sequence computed from the index of the field's row, e.g.
+ * "seq:" yields 1, 2, 3 ... for the rows of a table, "seq:1000" starts with
+ * 1000 and "seq:1000,10" counts in steps of 10. As the value only depends on
+ * the row, reading a field again or in another order yields the same
+ * value.</li>
+ * <li><b>uuid</b>: a random UUID, e.g. "uuid:".</li>
+ * <li><b>now</b>: the time stamp of the first "now:" field of the data set,
+ * optionally with an offset in milliseconds, seconds, minutes, hours or days
+ * and a step per row, e.g. "now:", "now:-14d", "now:+2h" or "now:-14d,1h",
+ * which yields the time stamps 14 days ago, then one hour later for each
+ * row.</li>
+ * </ul>
+ * <p>
+ * Built-in languages are configured like any other language, e.g.
+ * <code>new ScriptableDataSetConfig("seq", "seq:")</code>. They are not
+ * registered with the <code>ScriptEngineManager</code>.
+ * </p>
+ * 
+ * @author Gunnar Morling
+ */
+public class BuiltInScriptEngineFactory implements ScriptEngineFactory {
+
+	/**
+	 * The names of all built-in languages.
+	 */
+	public static final List<String> LANGUAGE_NAMES = Collections.unmodifiableList(Arrays.asList("seq", "uuid", "now"));
+
+	private final String languageName;
+
+	/**
+	 * Creates a new BuiltInScriptEngineFactory.
+	 * 
+	 * @param languageName
+	 *            One of {@link #LANGUAGE_NAMES}.
+	 */
+	public BuiltInScriptEngineFactory(String languageName) {
+
+		if (!LANGUAGE_NAMES.contains(languageName)) {
+			throw new IllegalArgumentException("Unknown built-in language \"" + languageName + "\".");
+		}
+
+		this.languageName = languageName;
+	}
+
+	/**
+	 * Returns the factory for the given language, if it is a built-in one.
+	 * 
+	 * @param languageName
+	 *            The name of a language.
+	 * @return The factory for the given language or null, if it isn't a
+	 *         built-in language.
+	 */
+	public static BuiltInScriptEngineFactory getFactory(String languageName) {
+
+		return LANGUAGE_NAMES.contains(languageName) ? new BuiltInScriptEngineFactory(languageName) : null;
+	}
+
+	public String getEngineName() {
+
+		return "scriptable-dataset built-in";
+	}
+
+	public String getEngineVersion() {
+
+		return "1.0";
+	}
+
+	public List<String> getExtensions() {
+
+		return Collections.emptyList();
+	}
+
+	public List<String> getMimeTypes() {
+
+		return Collections.emptyList();
+	}
+
+	public List<String> getNames() {
+
+		return Collections.singletonList(languageName);
+	}
+
+	public String getLanguageName() {
+
+		return languageName;
+	}
+
+	public String getLanguageVersion() {
+
+		return "1.0";
+	}
+
+	/**
+	 * Returns the value of the given parameter. The "THREADING" parameter is
+	 * "MULTITHREADED", so one engine is shared by all threads of a data set.
+	 */
+	public Object getParameter(String key) {
+
+		if (ScriptEngine.ENGINE.equals(key)) {
+			return getEngineName();
+		}
+		else if (ScriptEngine.ENGINE_VERSION.equals(key)) {
+			return getEngineVersion();
+		}
+		else if (ScriptEngine.NAME.equals(key) || ScriptEngine.LANGUAGE.equals(key)) {
+			return languageName;
+		}
+		else if (ScriptEngine.LANGUAGE_VERSION.equals(key)) {
+			return getLanguageVersion();
+		}
+		else if ("THREADING".equals(key)) {
+			return "MULTITHREADED";
+		}
+
+		return null;
+	}
+
+	public String getMethodCallSyntax(String obj, String m, String... args) {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public String getOutputStatement(String toDisplay) {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public String getProgram(String... statements) {
+
+		throw new UnsupportedOperationException();
+	}
+
+	public ScriptEngine getScriptEngine() {
+
+		return new BuiltInScriptEngine(this);
+	}
+}
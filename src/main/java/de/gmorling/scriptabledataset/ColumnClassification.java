@@ -0,0 +1,195 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.util.List;
+
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.ITable;
+
+/**
+ * Describes which fields of a table column contain scripts and for which
+ * configuration. Columns without any scripts are marked as literal, so their
+ * values can be passed through without any prefix matching.
+ * 
+ * @author Gunnar Morling
+ */
+class ColumnClassification {
+
+	/**
+	 * The kind of values contained in a column.
+	 */
+	enum Kind {
+
+		/**
+		 * The column contains no scripts at all.
+		 */
+		LITERAL,
+
+		/**
+		 * All fields of the column contain scripts.
+		 */
+		SCRIPTED,
+
+		/**
+		 * The column contains scripts and literal values.
+		 */
+		MIXED,
+
+		/**
+		 * The column's fields can't be examined in advance, as its table can
+		 * only be read once, e.g. when streamed. Each field must be matched
+		 * against the prefixes when read.
+		 */
+		UNEXAMINED
+	}
+
+	private final Kind kind;
+
+	private final List<ScriptableDataSetConfig> configurations;
+
+	/**
+	 * The index of the matching configuration plus one for each row, 0 for
+	 * literal fields. Null for literal columns.
+	 */
+	private final byte[] configIndexes;
+
+	/**
+	 * The configuration matching all fields of a column, whose fields contain
+	 * the same script, null otherwise.
+	 */
+	private final ScriptableDataSetConfig uniformConfig;
+
+	private final int rowCount;
+
+	private ColumnClassification(Kind kind, List<ScriptableDataSetConfig> configurations, byte[] configIndexes) {
+
+		this.kind = kind;
+		this.configurations = configurations;
+		this.configIndexes = configIndexes;
+		this.uniformConfig = null;
+		this.rowCount = configIndexes != null ? configIndexes.length : 0;
+	}
+
+	private ColumnClassification(List<ScriptableDataSetConfig> configurations, ScriptableDataSetConfig uniformConfig, int rowCount) {
+
+		this.kind = Kind.SCRIPTED;
+		this.configurations = configurations;
+		this.configIndexes = null;
+		this.uniformConfig = uniformConfig;
+		this.rowCount = rowCount;
+	}
+
+	/**
+	 * Classifies the given column by examining all its fields. Columns of
+	 * generated tables are classified by their generator script, without
+	 * examining any fields. Columns of tables not providing their row count,
+	 * such as those of streamed data sets, are not examined either.
+	 * 
+	 * @param table
+	 *            The table containing the column.
+	 * @param column
+	 *            The name of the column.
+	 * @param prefixes
+	 *            A trie with the configurations whose prefixes shall be
+	 *            detected. At most 127 configurations are supported.
+	 * @return The classification of the given column.
+	 * @throws DataSetException
+	 *             In case the column's fields couldn't be read.
+	 */
+	static ColumnClassification classify(ITable table, String column, ScriptPrefixTrie prefixes)
+			throws DataSetException {
+
+		List<ScriptableDataSetConfig> configurations = prefixes.getConfigurations();
+
+		if (table instanceof GeneratedTable) {
+
+			ScriptableDataSetConfig config = prefixes.getLongestMatch(((GeneratedTable) table).getScript(column));
+
+			if (config == null) {
+				return new ColumnClassification(Kind.LITERAL, configurations, null);
+			}
+
+			return new ColumnClassification(configurations, config, table.getRowCount());
+		}
+
+		int rowCount;
+
+		try {
+			rowCount = table.getRowCount();
+		}
+		catch (UnsupportedOperationException e) {
+			return new ColumnClassification(Kind.UNEXAMINED, configurations, null);
+		}
+
+		byte[] configIndexes = new byte[rowCount];
+		int scriptedFields = 0;
+
+		for (int i = 0; i < rowCount; i++) {
+
+			Object value = table.getValue(i, column);
+
+			// only strings can be processed
+			if (value instanceof String) {
+
+				int configIndex = prefixes.getLongestMatchIndex((String) value);
+
+				if (configIndex != -1) {
+					configIndexes[i] = (byte) (configIndex + 1);
+					scriptedFields++;
+				}
+			}
+		}
+
+		if (scriptedFields == 0) {
+			return new ColumnClassification(Kind.LITERAL, configurations, null);
+		}
+		else if (scriptedFields == rowCount) {
+			return new ColumnClassification(Kind.SCRIPTED, configurations, configIndexes);
+		}
+		else {
+			return new ColumnClassification(Kind.MIXED, configurations, configIndexes);
+		}
+	}
+
+	Kind getKind() {
+
+		return kind;
+	}
+
+	/**
+	 * Returns the configuration matching the given field of this column.
+	 * 
+	 * @param row
+	 *            The row of the field.
+	 * @return The configuration whose prefix the field starts with or null, if
+	 *         the field doesn't contain a script, the row doesn't exist or
+	 *         the column is {@link Kind#UNEXAMINED}.
+	 */
+	ScriptableDataSetConfig getConfig(int row) {
+
+		// let the wrapped table handle rows out of bounds
+		if (uniformConfig != null) {
+			return row >= 0 && row < rowCount ? uniformConfig : null;
+		}
+
+		if (configIndexes == null || row < 0 || row >= configIndexes.length || configIndexes[row] == 0) {
+			return null;
+		}
+
+		return configurations.get(configIndexes[row] - 1);
+	}
+}
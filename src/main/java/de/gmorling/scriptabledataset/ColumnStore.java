@@ -0,0 +1,446 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the memoized values of all rows of one column, see
+ * {@link MemoizedValues}. Besides a store keeping the values as objects,
+ * there are type-specialized stores keeping them in primitive arrays or
+ * off-heap buffers, which create the value objects only when they are read.
+ * The specialized stores keep values of other classes than the one they are
+ * made for as objects, so reads always return an object of the memoized
+ * value's class.
+ * <p>
+ * Stores aren't thread-safe.
+ * </p>
+ * 
+ * @author Gunnar Morling
+ */
+abstract class ColumnStore {
+
+	/**
+	 * Creates a store for values of the given class.
+	 * 
+	 * @param type
+	 *            The class of the column's values.
+	 * @param rowCount
+	 *            The number of rows of the table.
+	 * @param columnar
+	 *            Whether a type-specialized store shall be created, if
+	 *            there is one for the given class.
+	 * @return A store for the given class.
+	 */
+	static ColumnStore create(Class<?> type, int rowCount, boolean columnar) {
+
+		if (!columnar) {
+			return new ObjectStore(rowCount);
+		}
+		else if (type == Long.class || type == Integer.class || type == Short.class || type == Byte.class) {
+			return new LongStore(type, rowCount);
+		}
+		else if (type == Double.class || type == Float.class) {
+			return new DoubleStore(type, rowCount);
+		}
+		else if (type == Timestamp.class || type == java.sql.Date.class || type == Time.class || type == Date.class) {
+			return new TimeStore(type, rowCount);
+		}
+		else if (type == String.class || type == byte[].class) {
+			return new OffHeapStore(type, rowCount);
+		}
+
+		return new ObjectStore(rowCount);
+	}
+
+	/**
+	 * Returns the value of the given row.
+	 * 
+	 * @param row
+	 *            A row of the table.
+	 * @return The value of the given row or null, if it isn't memoized.
+	 */
+	abstract Object get(int row);
+
+	/**
+	 * Stores the value of the given row.
+	 * 
+	 * @param row
+	 *            A row of the table.
+	 * @param value
+	 *            The value of the given row. May not be null.
+	 * @return True, if no value was stored for the given row before, false
+	 *         otherwise.
+	 */
+	abstract boolean put(int row, Object value);
+
+	/**
+	 * Keeps the values as objects.
+	 */
+	private static class ObjectStore extends ColumnStore {
+
+		private final Object[] values;
+
+		ObjectStore(int rowCount) {
+
+			values = new Object[rowCount];
+		}
+
+		@Override
+		Object get(int row) {
+
+			return values[row];
+		}
+
+		@Override
+		boolean put(int row, Object value) {
+
+			boolean added = values[row] == null;
+			values[row] = value;
+			return added;
+		}
+	}
+
+	/**
+	 * The base class for type-specialized stores. Tracks which rows are kept
+	 * in the specialized representation and keeps all other values as
+	 * objects.
+	 */
+	private abstract static class TypedStore extends ColumnStore {
+
+		protected final Class<?> type;
+
+		private final BitSet stored = new BitSet();
+
+		private final Map<Integer, Object> otherValues = new HashMap<Integer, Object>();
+
+		TypedStore(Class<?> type) {
+
+			this.type = type;
+		}
+
+		@Override
+		Object get(int row) {
+
+			if (stored.get(row)) {
+				return read(row);
+			}
+
+			return otherValues.isEmpty() ? null : otherValues.get(row);
+		}
+
+		@Override
+		boolean put(int row, Object value) {
+
+			boolean added = !stored.get(row) && !otherValues.containsKey(row);
+
+			if (value.getClass() == type && write(row, value)) {
+				stored.set(row);
+				otherValues.remove(row);
+			}
+			else {
+				stored.clear(row);
+				otherValues.put(row, value);
+			}
+
+			return added;
+		}
+
+		/**
+		 * Creates the value of the given row from the specialized
+		 * representation.
+		 */
+		abstract Object read(int row);
+
+		/**
+		 * Stores the given value of this store's type in the specialized
+		 * representation.
+		 * 
+		 * @return False, if the value can't be stored in the specialized
+		 *         representation, true otherwise.
+		 */
+		abstract boolean write(int row, Object value);
+	}
+
+	/**
+	 * Keeps integral numbers in a long array.
+	 */
+	private static class LongStore extends TypedStore {
+
+		private final long[] values;
+
+		LongStore(Class<?> type, int rowCount) {
+
+			super(type);
+			values = new long[rowCount];
+		}
+
+		@Override
+		Object read(int row) {
+
+			long value = values[row];
+
+			if (type == Long.class) {
+				return value;
+			}
+			else if (type == Integer.class) {
+				return (int) value;
+			}
+			else if (type == Short.class) {
+				return (short) value;
+			}
+
+			return (byte) value;
+		}
+
+		@Override
+		boolean write(int row, Object value) {
+
+			values[row] = ((Number) value).longValue();
+			return true;
+		}
+	}
+
+	/**
+	 * Keeps floating point numbers in a double array.
+	 */
+	private static class DoubleStore extends TypedStore {
+
+		private final double[] values;
+
+		DoubleStore(Class<?> type, int rowCount) {
+
+			super(type);
+			values = new double[rowCount];
+		}
+
+		@Override
+		Object read(int row) {
+
+			double value = values[row];
+			return type == Double.class ? (Object) value : (Object) (float) value;
+		}
+
+		@Override
+		boolean write(int row, Object value) {
+
+			values[row] = ((Number) value).doubleValue();
+			return true;
+		}
+	}
+
+	/**
+	 * Keeps dates and time stamps as milliseconds in a long array, with the
+	 * nanoseconds of time stamps in an additional int array.
+	 */
+	private static class TimeStore extends TypedStore {
+
+		private final long[] millis;
+
+		private final int[] nanos;
+
+		TimeStore(Class<?> type, int rowCount) {
+
+			super(type);
+			millis = new long[rowCount];
+			nanos = type == Timestamp.class ? new int[rowCount] : null;
+		}
+
+		@Override
+		Object read(int row) {
+
+			if (type == Timestamp.class) {
+				Timestamp theValue = new Timestamp(millis[row]);
+				theValue.setNanos(nanos[row]);
+				return theValue;
+			}
+			else if (type == java.sql.Date.class) {
+				return new java.sql.Date(millis[row]);
+			}
+			else if (type == Time.class) {
+				return new Time(millis[row]);
+			}
+
+			return new Date(millis[row]);
+		}
+
+		@Override
+		boolean write(int row, Object value) {
+
+			millis[row] = ((Date) value).getTime();
+
+			if (nanos != null) {
+				nanos[row] = ((Timestamp) value).getNanos();
+			}
+
+			return true;
+		}
+	}
+
+	/**
+	 * Keeps strings and byte arrays in a direct byte buffer, which grows as
+	 * needed. The position and length of each value are kept in int arrays.
+	 * Strings consisting of ASCII characters only are stored with one byte
+	 * per character, all other strings with two bytes per character.
+	 */
+	private static class OffHeapStore extends TypedStore {
+
+		private static final Charset ASCII = Charset.forName("US-ASCII");
+
+		private static final int INITIAL_CAPACITY = 64 * 1024;
+
+		private ByteBuffer buffer;
+
+		/**
+		 * The end of the values in the buffer, where new values are appended.
+		 */
+		private int end;
+
+		private final int[] offsets;
+
+		private final int[] lengths;
+
+		/**
+		 * The rows containing strings with two bytes per character.
+		 */
+		private final BitSet wideStrings = new BitSet();
+
+		OffHeapStore(Class<?> type, int rowCount) {
+
+			super(type);
+			offsets = new int[rowCount];
+			lengths = new int[rowCount];
+		}
+
+		@Override
+		Object read(int row) {
+
+			buffer.position(offsets[row]);
+
+			if (type == byte[].class) {
+				byte[] theValue = new byte[lengths[row]];
+				buffer.get(theValue);
+				return theValue;
+			}
+			else if (wideStrings.get(row)) {
+				char[] chars = new char[lengths[row] / 2];
+				buffer.asCharBuffer().get(chars);
+				return new String(chars);
+			}
+
+			byte[] bytes = new byte[lengths[row]];
+			buffer.get(bytes);
+			return new String(bytes, ASCII);
+		}
+
+		@Override
+		boolean write(int row, Object value) {
+
+			if (type == byte[].class) {
+
+				byte[] bytes = (byte[]) value;
+
+				if (!ensureCapacity(bytes.length)) {
+					return false;
+				}
+
+				offsets[row] = end;
+				lengths[row] = bytes.length;
+				buffer.position(end);
+				buffer.put(bytes);
+				end = buffer.position();
+
+				return true;
+			}
+
+			String string = (String) value;
+			boolean wide = false;
+
+			for (int i = 0; i < string.length() && !wide; i++) {
+				wide = string.charAt(i) >= 0x80;
+			}
+
+			long length = wide ? 2L * string.length() : string.length();
+
+			if (!ensureCapacity(length)) {
+				return false;
+			}
+
+			offsets[row] = end;
+			lengths[row] = (int) length;
+			buffer.position(end);
+
+			if (wide) {
+				wideStrings.set(row);
+				for (int i = 0; i < string.length(); i++) {
+					buffer.putChar(string.charAt(i));
+				}
+			}
+			else {
+				wideStrings.clear(row);
+				for (int i = 0; i < string.length(); i++) {
+					buffer.put((byte) string.charAt(i));
+				}
+			}
+
+			end = buffer.position();
+
+			return true;
+		}
+
+		/**
+		 * Makes sure the buffer can take the given number of bytes at its
+		 * end.
+		 * 
+		 * @return False, if the buffer can't grow to the required size, true
+		 *         otherwise.
+		 */
+		private boolean ensureCapacity(long length) {
+
+			if (end + length > Integer.MAX_VALUE) {
+				return false;
+			}
+
+			if (buffer == null || end + length > buffer.capacity()) {
+
+				long capacity = buffer != null ? buffer.capacity() : INITIAL_CAPACITY;
+
+				while (capacity < end + length) {
+					capacity *= 2;
+				}
+
+				ByteBuffer newBuffer = ByteBuffer.allocateDirect((int) Math.min(capacity, Integer.MAX_VALUE));
+
+				if (buffer != null) {
+					buffer.position(0);
+					buffer.limit(end);
+					newBuffer.put(buffer);
+				}
+
+				buffer = newBuffer;
+			}
+
+			return true;
+		}
+	}
+}
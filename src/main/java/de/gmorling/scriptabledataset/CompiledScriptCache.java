@@ -0,0 +1,223 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import de.gmorling.scriptabledataset.ScriptEvaluationEvent.EvaluationPath;
+
+/**
+ * Evaluates scripts using a given engine, keeping the compiled form of the
+ * most recently used scripts, if the engine implements {@link Compilable}.
+ * Scripts are evaluated directly if the engine doesn't support compilation or
+ * the cache is disabled by setting its size to 0. A cache may be used by
+ * several threads at once, if its engine allows for concurrent evaluation.
+ * 
+ * @author Gunnar Morling
+ */
+class CompiledScriptCache {
+
+	private final ScriptEngine engine;
+
+	private final Map<String, CompiledScript> compiledScripts;
+
+	/**
+	 * Creates a new CompiledScriptCache.
+	 * 
+	 * @param engine
+	 *            The engine used to compile and evaluate scripts. May not be
+	 *            null.
+	 * @param maxSize
+	 *            The maximum number of compiled scripts to be kept. The least
+	 *            recently used script will be evicted, if this size is
+	 *            exceeded.
+	 */
+	CompiledScriptCache(ScriptEngine engine, final int maxSize) {
+
+		this.engine = engine;
+
+		if (maxSize > 0 && engine instanceof Compilable) {
+
+			compiledScripts = new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+					return size() > maxSize;
+				}
+			};
+		}
+		else {
+			compiledScripts = null;
+		}
+	}
+
+	/**
+	 * Evaluates the given script, compiling it first if it isn't contained in
+	 * this cache yet.
+	 * 
+	 * @param script
+	 *            The script to evaluate, already processed by all handlers.
+	 * @return The result of the script evaluation.
+	 * @throws ScriptException
+	 *             In case the script couldn't be compiled or evaluated.
+	 */
+	Object eval(String script) throws ScriptException {
+
+		return eval(script, null);
+	}
+
+	/**
+	 * Evaluates the given script, compiling it first if it isn't contained in
+	 * this cache yet.
+	 * 
+	 * @param script
+	 *            The script to evaluate, already processed by all handlers.
+	 * @param event
+	 *            An event to be notified whether the script was compiled and
+	 *            whether the compiled script was found in this cache. May be
+	 *            null.
+	 * @return The result of the script evaluation.
+	 * @throws ScriptException
+	 *             In case the script couldn't be compiled or evaluated.
+	 */
+	Object eval(String script, ScriptEvaluationEvent event) throws ScriptException {
+
+		return eval(script, event, null);
+	}
+
+	/**
+	 * Evaluates the given script within the given context, compiling it first
+	 * if it isn't contained in this cache yet. The compiled form of a script
+	 * is shared by all contexts.
+	 * 
+	 * @param script
+	 *            The script to evaluate, already processed by all handlers.
+	 * @param event
+	 *            An event to be notified whether the script was compiled and
+	 *            whether the compiled script was found in this cache. May be
+	 *            null.
+	 * @param context
+	 *            The context to evaluate the script in. May be null, in which
+	 *            case the engine's default context is used.
+	 * @return The result of the script evaluation.
+	 * @throws ScriptException
+	 *             In case the script couldn't be compiled or evaluated.
+	 */
+	Object eval(String script, ScriptEvaluationEvent event, ScriptContext context) throws ScriptException {
+
+		if (compiledScripts == null) {
+
+			if (event != null) {
+				event.setEvaluationPath(EvaluationPath.NOT_COMPILED);
+			}
+
+			return context != null ? engine.eval(script, context) : engine.eval(script);
+		}
+
+		CompiledScript compiledScript;
+
+		synchronized (compiledScripts) {
+			compiledScript = compiledScripts.get(script);
+		}
+
+		if (event != null) {
+			event.setEvaluationPath(compiledScript != null ? EvaluationPath.COMPILED_SCRIPT_CACHE_HIT : EvaluationPath.COMPILED_SCRIPT_CACHE_MISS);
+		}
+
+		if (compiledScript == null) {
+
+			compiledScript = ((Compilable) engine).compile(script);
+
+			synchronized (compiledScripts) {
+				compiledScripts.put(script, compiledScript);
+			}
+		}
+
+		return context != null ? compiledScript.eval(context) : compiledScript.eval();
+	}
+
+	/**
+	 * Compiles the given script and adds it to this cache, unless it is
+	 * contained already. Does nothing, if this cache is disabled.
+	 * 
+	 * @param script
+	 *            The script to compile, already processed by all handlers.
+	 * @throws ScriptException
+	 *             In case the script couldn't be compiled.
+	 */
+	void compile(String script) throws ScriptException {
+
+		if (compiledScripts == null) {
+			return;
+		}
+
+		synchronized (compiledScripts) {
+			if (compiledScripts.containsKey(script)) {
+				return;
+			}
+		}
+
+		CompiledScript compiledScript = ((Compilable) engine).compile(script);
+
+		synchronized (compiledScripts) {
+			compiledScripts.put(script, compiledScript);
+		}
+	}
+
+	/**
+	 * Returns the number of compiled scripts currently held by this cache.
+	 * 
+	 * @return The number of compiled scripts.
+	 */
+	int size() {
+
+		if (compiledScripts == null) {
+			return 0;
+		}
+
+		synchronized (compiledScripts) {
+			return compiledScripts.size();
+		}
+	}
+
+	/**
+	 * Returns the compiled form of the given script held by this cache. This
+	 * counts as a use of the script with respect to eviction.
+	 * 
+	 * @param script
+	 *            The script, already processed by all handlers.
+	 * @return The compiled script or null, if it isn't contained in this cache.
+	 */
+	CompiledScript get(String script) {
+
+		if (compiledScripts == null) {
+			return null;
+		}
+
+		synchronized (compiledScripts) {
+			return compiledScripts.get(script);
+		}
+	}
+}
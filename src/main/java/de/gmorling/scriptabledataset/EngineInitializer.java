@@ -0,0 +1,167 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.dbunit.dataset.stream.StreamingDataSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Initializes the engines of all configurations requesting eager
+ * initialization: loads the engines, evaluates the warm-up scripts and
+ * compiles the scripts contained in the data set, if requested. Failures are
+ * logged only, as they will occur again when the affected scripts are
+ * evaluated.
+ * 
+ * @author Gunnar Morling
+ */
+class EngineInitializer implements Runnable {
+
+	private final Logger logger = LoggerFactory.getLogger(EngineInitializer.class);
+
+	private final IDataSet dataSet;
+
+	private final ScriptPrefixTrie prefixes;
+
+	private final ScriptEngineRegistry engines;
+
+	/**
+	 * Creates a new EngineInitializer.
+	 * 
+	 * @param dataSet
+	 *            The data set, whose scripts shall be compiled.
+	 * @param prefixes
+	 *            A trie with all configurations of the data set.
+	 * @param engines
+	 *            The registry providing the engines to initialize.
+	 */
+	EngineInitializer(IDataSet dataSet, ScriptPrefixTrie prefixes, ScriptEngineRegistry engines) {
+
+		this.dataSet = dataSet;
+		this.prefixes = prefixes;
+		this.engines = engines;
+	}
+
+	public void run() {
+
+		try {
+			Map<ScriptableDataSetConfig, Set<String>> scriptsByConfig = collectScripts();
+
+			for (ScriptableDataSetConfig oneConfig : prefixes.getConfigurations()) {
+				if (oneConfig.isEagerInitialization()) {
+					initialize(oneConfig, scriptsByConfig.get(oneConfig));
+				}
+			}
+		}
+		catch (Exception e) {
+			logger.warn("Eager initialization of scripting engines failed.", e);
+		}
+	}
+
+	private void initialize(ScriptableDataSetConfig config, Set<String> scripts) {
+
+		long start = System.currentTimeMillis();
+		ScriptEvaluator evaluator = engines.acquireEvaluator(config);
+
+		try {
+			for (String oneScript : config.getWarmUpScripts()) {
+				evaluator.evaluate(oneScript);
+			}
+
+			if (scripts != null) {
+				for (String oneScript : scripts) {
+					evaluator.precompile(oneScript);
+				}
+			}
+		}
+		finally {
+			engines.releaseEvaluator(evaluator);
+		}
+
+		logger.info("Initialized scripting engine for language {} in {} ms.", config.getLanguageName(), System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Collects the distinct scripts of all configurations requesting
+	 * precompilation, up to the size of each configuration's compiled script
+	 * cache.
+	 */
+	private Map<ScriptableDataSetConfig, Set<String>> collectScripts() throws DataSetException {
+
+		Map<ScriptableDataSetConfig, Set<String>> theValue = new HashMap<ScriptableDataSetConfig, Set<String>>();
+
+		for (ScriptableDataSetConfig oneConfig : prefixes.getConfigurations()) {
+			if (oneConfig.isEagerInitialization() && oneConfig.isPrecompileScripts()) {
+				theValue.put(oneConfig, new LinkedHashSet<String>());
+			}
+		}
+
+		if (theValue.isEmpty()) {
+			return theValue;
+		}
+
+		// a streamed data set can be iterated only once
+		if (dataSet instanceof StreamingDataSet) {
+			logger.info("Scripts of streamed data sets can't be compiled in advance.");
+			return theValue;
+		}
+
+		ITableIterator iterator = dataSet.iterator();
+
+		while (iterator.next()) {
+
+			ITable table = iterator.getTable();
+
+			for (Column oneColumn : table.getTableMetaData().getColumns()) {
+
+				if (table instanceof GeneratedTable) {
+					addScript(theValue, ((GeneratedTable) table).getScript(oneColumn.getColumnName()));
+					continue;
+				}
+
+				for (int i = 0; i < table.getRowCount(); i++) {
+					addScript(theValue, table.getValue(i, oneColumn.getColumnName()));
+				}
+			}
+		}
+
+		return theValue;
+	}
+
+	private void addScript(Map<ScriptableDataSetConfig, Set<String>> scriptsByConfig, Object value) {
+
+		if (!(value instanceof String)) {
+			return;
+		}
+
+		ScriptableDataSetConfig config = prefixes.getLongestMatch((String) value);
+		Set<String> scripts = config != null ? scriptsByConfig.get(config) : null;
+
+		if (scripts != null && scripts.size() < config.getCompiledScriptCacheSize()) {
+			scripts.add(((String) value).substring(config.getPrefix().length()));
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultTableMetaData;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.RowOutOfBoundsException;
+
+/**
+ * <p>
+ * A virtual table with a given number of rows, whose fields are computed by
+ * generator scripts. All fields of a column contain the same script, which
+ * is evaluated for each row when the table is wrapped by a
+ * {@link ScriptableDataSet}. The scripts can refer to the row being evaluated
+ * using the bindings described at {@link ScriptableTable}, so the memory
+ * required by a generated table doesn't depend on its row count.
+ * </p>
+ * <p>
+ * A data set with a generated table can be created as follows:
+ * </p>
+ * 
+ * <pre>
+ * Map&lt;String, String&gt; scripts = new HashMap&lt;String, String&gt;();
+ * scripts.put(&quot;num&quot;, &quot;groovy:rowIndex + 1&quot;);
+ * scripts.put(&quot;addr&quot;, &quot;groovy:'Street ' + rowIndex&quot;);
+ * 
+ * ITable location = new GeneratedTable(&quot;location&quot;, columns, 10000000, scripts);
+ * 
+ * IDataSet dataSet = new ScriptableDataSet(
+ * 		new DefaultDataSet(location), new ScriptableDataSetConfig(&quot;groovy&quot;, &quot;groovy:&quot;));
+ * </pre>
+ * 
+ * @author Gunnar Morling
+ */
+public class GeneratedTable implements ITable {
+
+	private final ITableMetaData metaData;
+
+	private final int rowCount;
+
+	/**
+	 * The generator script of each column by column index, null for columns
+	 * without script.
+	 */
+	private final String[] scripts;
+
+	/**
+	 * Creates a new GeneratedTable.
+	 * 
+	 * @param tableName
+	 *            The name of the table. May not be null.
+	 * @param columns
+	 *            The columns of the table. May not be null.
+	 * @param rowCount
+	 *            The number of rows of the table. Must not be negative.
+	 * @param scripts
+	 *            The generator script of each column, including the prefix of
+	 *            its configuration. Columns without a script will be null in
+	 *            all rows.
+	 * @throws DataSetException
+	 *             In case a script is given for a column not contained in the
+	 *             table.
+	 */
+	public GeneratedTable(String tableName, Column[] columns, int rowCount, Map<String, String> scripts)
+			throws DataSetException {
+
+		this(new DefaultTableMetaData(tableName, columns), rowCount, scripts);
+	}
+
+	/**
+	 * Creates a new GeneratedTable.
+	 * 
+	 * @param metaData
+	 *            The meta data of the table. May not be null.
+	 * @param rowCount
+	 *            The number of rows of the table. Must not be negative.
+	 * @param scripts
+	 *            The generator script of each column, including the prefix of
+	 *            its configuration. Columns without a script will be null in
+	 *            all rows.
+	 * @throws DataSetException
+	 *             In case a script is given for a column not contained in the
+	 *             table.
+	 */
+	public GeneratedTable(ITableMetaData metaData, int rowCount, Map<String, String> scripts)
+			throws DataSetException {
+
+		Validate.notNull(metaData);
+		Validate.isTrue(rowCount >= 0, "The row count must not be negative.");
+		Validate.notNull(scripts);
+
+		this.metaData = metaData;
+		this.rowCount = rowCount;
+		this.scripts = new String[metaData.getColumns().length];
+
+		for (Map.Entry<String, String> oneScript : scripts.entrySet()) {
+			this.scripts[metaData.getColumnIndex(oneScript.getKey())] = oneScript.getValue();
+		}
+	}
+
+	/**
+	 * Returns the generator script of the given column.
+	 * 
+	 * @param column
+	 *            The name of a column of this table.
+	 * @return The generator script of the given column or null, if the column
+	 *         has no script.
+	 * @throws DataSetException
+	 *             In case the column doesn't exist.
+	 */
+	public String getScript(String column) throws DataSetException {
+
+		return scripts[metaData.getColumnIndex(column)];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public int getRowCount() {
+
+		return rowCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public ITableMetaData getTableMetaData() {
+
+		return metaData;
+	}
+
+	/**
+	 * Returns the generator script of the given column, as the value of each
+	 * row is the column's script.
+	 */
+	public Object getValue(int row, String column) throws DataSetException {
+
+		if (row < 0 || row >= rowCount) {
+			throw new RowOutOfBoundsException(row + " > " + (rowCount - 1));
+		}
+
+		return getScript(column);
+	}
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.script.ScriptEngine;
+
+import de.gmorling.scriptabledataset.handlers.AbstractScriptInvocationHandler;
+import de.gmorling.scriptabledataset.handlers.BatchScriptInvocationHandler;
+import de.gmorling.scriptabledataset.handlers.LiteralPreservingInvocationHandler;
+import de.gmorling.scriptabledataset.handlers.ScriptInvocationHandler;
+import de.gmorling.scriptabledataset.handlers.StandardHandlerConfig;
+
+/**
+ * The invocation handlers of one scripting language configuration, arranged
+ * once for the evaluation of scripts with a given engine. The handlers are
+ * held in arrays in the order of their invocation: the standard handlers
+ * followed by the custom handlers for preInvoke and the reversed order for
+ * postInvoke. Handlers based on {@link AbstractScriptInvocationHandler},
+ * which don't override one of these methods, are left out for that phase.
+ * <p>
+ * The standard handlers are new instances, which are bound to the engine
+ * once. The custom handlers of a configuration may be shared by several
+ * pipelines, so they are bound to the engine upon each invocation, while
+ * holding the handler's lock.
+ * </p>
+ * <p>
+ * Instances are immutable and may be used by several threads at once, if the
+ * handlers may be.
+ * </p>
+ * 
+ * @author Gunnar Morling
+ */
+class HandlerPipeline {
+
+	private static final BoundHandler[] NO_HANDLERS = new BoundHandler[0];
+
+	private final BoundHandler[] preInvokeHandlers;
+
+	private final BoundHandler[] postInvokeHandlers;
+
+	/**
+	 * The first batch handler or null, if there is none.
+	 */
+	private final BoundHandler batchHandler;
+
+	/**
+	 * The handlers preceding the batch handler, which are applied to each
+	 * script of a batch.
+	 */
+	private final HandlerPipeline beforeBatch;
+
+	/**
+	 * The handlers following the batch handler, which are applied to the
+	 * combined script of a batch.
+	 */
+	private final HandlerPipeline afterBatch;
+
+	/**
+	 * Creates the pipeline for the given configuration.
+	 * 
+	 * @param config
+	 *            The configuration to create the pipeline for. May not be null.
+	 * @param engine
+	 *            The engine evaluating the configuration's scripts. May not be
+	 *            null.
+	 */
+	HandlerPipeline(ScriptableDataSetConfig config, ScriptEngine engine) {
+
+		this(getAllHandlers(config, engine));
+	}
+
+	private HandlerPipeline(List<BoundHandler> handlers) {
+
+		List<BoundHandler> preInvoke = new ArrayList<BoundHandler>(handlers.size());
+		List<BoundHandler> postInvoke = new ArrayList<BoundHandler>(handlers.size());
+
+		for (BoundHandler oneHandler : handlers) {
+
+			if (oneHandler.overrides("preInvoke", String.class)) {
+				preInvoke.add(oneHandler);
+			}
+
+			// postInvoke is called in reversed order
+			if (oneHandler.overrides("postInvoke", Object.class)) {
+				postInvoke.add(0, oneHandler);
+			}
+		}
+
+		this.preInvokeHandlers = preInvoke.toArray(NO_HANDLERS);
+		this.postInvokeHandlers = postInvoke.toArray(NO_HANDLERS);
+
+		int batchHandlerIndex = -1;
+
+		for (int i = 0; i < handlers.size() && batchHandlerIndex == -1; i++) {
+			if (handlers.get(i).handler instanceof BatchScriptInvocationHandler) {
+				batchHandlerIndex = i;
+			}
+		}
+
+		if (batchHandlerIndex != -1) {
+			this.batchHandler = handlers.get(batchHandlerIndex);
+			this.beforeBatch = new HandlerPipeline(handlers.subList(0, batchHandlerIndex));
+			this.afterBatch = new HandlerPipeline(handlers.subList(batchHandlerIndex + 1, handlers.size()));
+		}
+		else {
+			this.batchHandler = null;
+			this.beforeBatch = null;
+			this.afterBatch = null;
+		}
+	}
+
+	/**
+	 * Applies the preInvoke method of all handlers to the given script.
+	 * 
+	 * @param script
+	 *            The script to be evaluated.
+	 * @return The script as processed by all handlers.
+	 */
+	String preInvoke(String script) {
+
+		for (BoundHandler oneHandler : preInvokeHandlers) {
+			script = oneHandler.preInvoke(script);
+		}
+
+		return script;
+	}
+
+	/**
+	 * Applies the postInvoke method of all handlers to the given result.
+	 * 
+	 * @param object
+	 *            The result of a script evaluation.
+	 * @return The result as processed by all handlers.
+	 */
+	Object postInvoke(Object object) {
+
+		for (BoundHandler oneHandler : postInvokeHandlers) {
+			object = oneHandler.postInvoke(object);
+		}
+
+		return object;
+	}
+
+	/**
+	 * Whether any handler of this pipeline may change the value of scripts
+	 * consisting of literals only before their evaluation.
+	 * 
+	 * @return True, if there is a handler overriding preInvoke, which isn't a
+	 *         {@link LiteralPreservingInvocationHandler}, false otherwise.
+	 */
+	boolean rewritesLiterals() {
+
+		for (BoundHandler oneHandler : preInvokeHandlers) {
+			if (!(oneHandler.handler instanceof LiteralPreservingInvocationHandler)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Whether this pipeline contains a {@link BatchScriptInvocationHandler}.
+	 * 
+	 * @return True, if {@link #preInvokeBatch(List)} and
+	 *         {@link #postInvokeBatch(Object)} may be invoked, false
+	 *         otherwise.
+	 */
+	boolean isBatchCapable() {
+
+		return batchHandler != null;
+	}
+
+	/**
+	 * Combines the given scripts into one script as described at
+	 * {@link BatchScriptInvocationHandler}.
+	 * 
+	 * @param scripts
+	 *            The scripts to be evaluated.
+	 * @return The combined script as processed by all handlers.
+	 */
+	String preInvokeBatch(List<String> scripts) {
+
+		List<String> preInvokedScripts = new ArrayList<String>(scripts.size());
+
+		for (String oneScript : scripts) {
+			preInvokedScripts.add(beforeBatch.preInvoke(oneScript));
+		}
+
+		return afterBatch.preInvoke(batchHandler.preInvokeBatch(preInvokedScripts));
+	}
+
+	/**
+	 * Splits the result of a script created by {@link #preInvokeBatch(List)}
+	 * into the results of the single scripts.
+	 * 
+	 * @param object
+	 *            The result of the combined script.
+	 * @return A list with the results of the single scripts, as processed by
+	 *         all handlers.
+	 */
+	List<Object> postInvokeBatch(Object object) {
+
+		List<Object> results = batchHandler.postInvokeBatch(afterBatch.postInvoke(object));
+		List<Object> theValue = new ArrayList<Object>(results.size());
+
+		for (Object oneResult : results) {
+			theValue.add(beforeBatch.postInvoke(oneResult));
+		}
+
+		return theValue;
+	}
+
+	/**
+	 * Returns a list with new instances of all standard handlers registered
+	 * for the language of the config and all handlers declared in the config
+	 * itself.
+	 */
+	private static List<BoundHandler> getAllHandlers(ScriptableDataSetConfig config, ScriptEngine engine) {
+
+		List<BoundHandler> theValue = new ArrayList<BoundHandler>();
+
+		// standard handlers for the language
+		for (ScriptInvocationHandler oneHandler : StandardHandlerConfig.createStandardHandlersByLanguage(config.getLanguageName())) {
+			oneHandler.setScriptEngine(engine);
+			theValue.add(new BoundHandler(oneHandler, engine, false));
+		}
+
+		// custom handlers
+		for (ScriptInvocationHandler oneHandler : config.getHandlers()) {
+			theValue.add(new BoundHandler(oneHandler, engine, true));
+		}
+
+		return theValue;
+	}
+
+	/**
+	 * A handler together with the engine it is bound to and the information
+	 * whether it may be shared with other pipelines.
+	 */
+	private static class BoundHandler {
+
+		private final ScriptInvocationHandler handler;
+
+		private final ScriptEngine engine;
+
+		private final boolean shared;
+
+		BoundHandler(ScriptInvocationHandler handler, ScriptEngine engine, boolean shared) {
+
+			this.handler = handler;
+			this.engine = engine;
+			this.shared = shared;
+		}
+
+		/**
+		 * Whether the handler's implementation of the given method differs
+		 * from the pass-through implementation of
+		 * {@link AbstractScriptInvocationHandler}.
+		 */
+		boolean overrides(String methodName, Class<?> parameterType) {
+
+			try {
+				return handler.getClass().getMethod(methodName, parameterType).getDeclaringClass() != AbstractScriptInvocationHandler.class;
+			}
+			catch (NoSuchMethodException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		String preInvoke(String script) {
+
+			if (!shared) {
+				return handler.preInvoke(script);
+			}
+
+			synchronized (handler) {
+				handler.setScriptEngine(engine);
+				return handler.preInvoke(script);
+			}
+		}
+
+		Object postInvoke(Object object) {
+
+			if (!shared) {
+				return handler.postInvoke(object);
+			}
+
+			synchronized (handler) {
+				handler.setScriptEngine(engine);
+				return handler.postInvoke(object);
+			}
+		}
+
+		String preInvokeBatch(List<String> scripts) {
+
+			BatchScriptInvocationHandler batchHandler = (BatchScriptInvocationHandler) handler;
+
+			if (!shared) {
+				return batchHandler.preInvokeBatch(scripts);
+			}
+
+			synchronized (handler) {
+				handler.setScriptEngine(engine);
+				return batchHandler.preInvokeBatch(scripts);
+			}
+		}
+
+		List<Object> postInvokeBatch(Object object) {
+
+			BatchScriptInvocationHandler batchHandler = (BatchScriptInvocationHandler) handler;
+
+			if (!shared) {
+				return batchHandler.postInvokeBatch(object);
+			}
+
+			synchronized (handler) {
+				handler.setScriptEngine(engine);
+				return batchHandler.postInvokeBatch(object);
+			}
+		}
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.ITableMetaData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the results of evaluated scripts of one table, so each scripted field
+ * is evaluated only once. The values of a column are kept in a map as long as
+ * only few of its fields are scripted and in a {@link ColumnStore} otherwise.
+ * In columnar mode, type-specialized stores are used, which are chosen by the
+ * data type of the column or, if it is unknown, by the class of the column's
+ * first values. All methods are synchronized, as a table may be read by
+ * several threads at once.
+ * 
+ * @author Gunnar Morling
+ */
+class MemoizedValues {
+
+	/**
+	 * Returned by {@link #get(int, String)} for fields without memoized value.
+	 */
+	static final Object NOT_MEMOIZED = new Object();
+
+	private static final Object NULL_VALUE = new Object();
+
+	private final Logger logger = LoggerFactory.getLogger(MemoizedValues.class);
+
+	private final int rowCount;
+
+	private final int maxValues;
+
+	private final Map<String, MemoizedColumn> columns = new HashMap<String, MemoizedColumn>();
+
+	/**
+	 * The classes of the values of all columns with known data type, by upper
+	 * case column name, or null, if not in columnar mode.
+	 */
+	private final Map<String, Class<?>> columnTypes;
+
+	private int size;
+
+	/**
+	 * Creates a new MemoizedValues.
+	 * 
+	 * @param rowCount
+	 *            The number of rows of the table.
+	 * @param maxValues
+	 *            The maximum number of values to be memoized. Further values
+	 *            won't be memoized, once this limit is reached.
+	 */
+	MemoizedValues(int rowCount, int maxValues) {
+
+		this.rowCount = rowCount;
+		this.maxValues = maxValues;
+		this.columnTypes = null;
+	}
+
+	/**
+	 * Creates a new MemoizedValues in columnar mode.
+	 * 
+	 * @param rowCount
+	 *            The number of rows of the table.
+	 * @param maxValues
+	 *            The maximum number of values to be memoized. Further values
+	 *            won't be memoized, once this limit is reached.
+	 * @param metaData
+	 *            The meta data of the table, whose data types determine the
+	 *            stores used for the columns.
+	 */
+	MemoizedValues(int rowCount, int maxValues, ITableMetaData metaData) {
+
+		this.rowCount = rowCount;
+		this.maxValues = maxValues;
+		this.columnTypes = new HashMap<String, Class<?>>();
+
+		try {
+			for (Column oneColumn : metaData.getColumns()) {
+
+				Class<?> type = oneColumn.getDataType().getTypeClass();
+
+				if (type != Object.class) {
+					columnTypes.put(oneColumn.getColumnName().toUpperCase(), type);
+				}
+			}
+		}
+		catch (DataSetException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Returns the memoized value of the given field.
+	 * 
+	 * @param row
+	 *            The row of the field.
+	 * @param column
+	 *            The column of the field.
+	 * @return The memoized value or {@link #NOT_MEMOIZED}, if no value is
+	 *         memoized for the given field.
+	 */
+	synchronized Object get(int row, String column) {
+
+		MemoizedColumn memoizedColumn = columns.get(column.toUpperCase());
+
+		if (memoizedColumn == null) {
+			return NOT_MEMOIZED;
+		}
+
+		Object theValue = memoizedColumn.get(row);
+
+		if (theValue == null) {
+			return NOT_MEMOIZED;
+		}
+
+		return theValue == NULL_VALUE ? null : theValue;
+	}
+
+	/**
+	 * Memoizes the value of the given field, unless the maximum number of
+	 * values is reached.
+	 * 
+	 * @param row
+	 *            The row of the field.
+	 * @param column
+	 *            The column of the field.
+	 * @param value
+	 *            The value of the field. May be null.
+	 */
+	synchronized void put(int row, String column, Object value) {
+
+		if (size >= maxValues) {
+			if (size == maxValues) {
+				logger.warn("Maximum number of {} memoized values reached, further values won't be memoized.", maxValues);
+				size++;
+			}
+			return;
+		}
+
+		String key = column.toUpperCase();
+		MemoizedColumn memoizedColumn = columns.get(key);
+
+		if (memoizedColumn == null) {
+			memoizedColumn = new MemoizedColumn(columnTypes != null ? columnTypes.get(key) : null);
+			columns.put(key, memoizedColumn);
+		}
+
+		if (memoizedColumn.put(row, value == null ? NULL_VALUE : value)) {
+			size++;
+		}
+	}
+
+	/**
+	 * Discards all memoized values.
+	 */
+	synchronized void clear() {
+
+		columns.clear();
+		size = 0;
+	}
+
+	synchronized int size() {
+
+		return Math.min(size, maxValues);
+	}
+
+	/**
+	 * The memoized values of one column. Starts with a sparse representation
+	 * and switches to a column store, once more than an eighth of the rows is
+	 * memoized.
+	 */
+	private class MemoizedColumn {
+
+		/**
+		 * The class of the column's values as given by its data type or null,
+		 * if it is unknown.
+		 */
+		private final Class<?> type;
+
+		private Map<Integer, Object> sparseValues = new HashMap<Integer, Object>();
+
+		private ColumnStore denseValues;
+
+		MemoizedColumn(Class<?> type) {
+
+			this.type = type;
+		}
+
+		Object get(int row) {
+
+			if (denseValues != null) {
+				return denseValues.get(row);
+			}
+
+			return sparseValues.get(row);
+		}
+
+		boolean put(int row, Object value) {
+
+			if (denseValues != null) {
+				return denseValues.put(row, value);
+			}
+
+			boolean added = sparseValues.put(row, value) == null;
+
+			if (sparseValues.size() > rowCount / 8) {
+
+				denseValues = ColumnStore.create(type != null ? type : getValueType(), rowCount, columnTypes != null);
+
+				for (Map.Entry<Integer, Object> oneEntry : sparseValues.entrySet()) {
+					denseValues.put(oneEntry.getKey(), oneEntry.getValue());
+				}
+
+				sparseValues = null;
+			}
+
+			return added;
+		}
+
+		/**
+		 * Returns the class of the first memoized value, which isn't null.
+		 */
+		private Class<?> getValueType() {
+
+			for (Object oneValue : sparseValues.values()) {
+				if (oneValue != NULL_VALUE) {
+					return oneValue.getClass();
+				}
+			}
+
+			return Object.class;
+		}
+	}
+}
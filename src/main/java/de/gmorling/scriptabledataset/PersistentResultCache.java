@@ -0,0 +1,638 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.script.ScriptEngineFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.gmorling.scriptabledataset.handlers.ScriptInvocationHandler;
+import de.gmorling.scriptabledataset.handlers.StandardHandlerConfig;
+
+/**
+ * <p>
+ * Keeps the results of deterministic scripts in a file, so they needn't be
+ * evaluated again in later runs. Results are keyed by the language, the name
+ * and version of its engine, the classes of all handlers, the setup scripts
+ * and table variables of the script's configuration and the script itself.
+ * The state of the handlers is not part of the key, so the cache directory
+ * must be cleared if it changes.
+ * </p>
+ * <p>
+ * Scripts referring to the bindings of the field being evaluated, such as
+ * {@link ScriptableTable#ROW_BINDING}, or to table variables and scripts of
+ * the built-in languages are never cached, as their results differ between
+ * fields. A script is considered to
+ * refer to a binding if it contains the binding's name as a word.
+ * </p>
+ * <p>
+ * The file is read using a memory mapping, which is created when the cache is
+ * opened. New results are appended to the file when the cache is closed. A
+ * truncated last record, e.g. left by an aborted run, is cut off before, so
+ * the appended records can be read again.
+ * Strings, numbers, booleans, characters, dates and byte arrays are
+ * supported, other results are not cached.
+ * </p>
+ * 
+ * @author Gunnar Morling
+ */
+class PersistentResultCache {
+
+	/**
+	 * Returned by
+	 * {@link #get(ScriptableDataSetConfig, ScriptEngineFactory, String)} for
+	 * scripts without cached result.
+	 */
+	static final Object NOT_CACHED = new Object();
+
+	static final String FILE_NAME = "scriptable-dataset-results.bin";
+
+	private static final int MAGIC = 0x53445243;
+
+	private static final int FORMAT_VERSION = 1;
+
+	private static final int HEADER_LENGTH = 8;
+
+	private static final int DIGEST_LENGTH = 32;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final byte NULL = 0;
+
+	private static final byte STRING = 1;
+
+	private static final byte INTEGER = 2;
+
+	private static final byte LONG = 3;
+
+	private static final byte DOUBLE = 4;
+
+	private static final byte FLOAT = 5;
+
+	private static final byte SHORT = 6;
+
+	private static final byte BYTE = 7;
+
+	private static final byte BOOLEAN = 8;
+
+	private static final byte CHARACTER = 9;
+
+	private static final byte BIG_INTEGER = 10;
+
+	private static final byte BIG_DECIMAL = 11;
+
+	private static final byte DATE = 12;
+
+	private static final byte TIMESTAMP = 13;
+
+	private static final byte SQL_DATE = 14;
+
+	private static final byte TIME = 15;
+
+	private static final byte BYTES = 16;
+
+	private final Logger logger = LoggerFactory.getLogger(PersistentResultCache.class);
+
+	private final File file;
+
+	private MappedByteBuffer mappedResults;
+
+	/**
+	 * The position of the encoded result within {@link #mappedResults} by key.
+	 */
+	private final Map<ByteBuffer, Integer> positionsByKey = new HashMap<ByteBuffer, Integer>();
+
+	/**
+	 * The encoded results added since this cache was opened.
+	 */
+	private final Map<ByteBuffer, byte[]> newResults = new LinkedHashMap<ByteBuffer, byte[]>();
+
+	private final Map<ScriptableDataSetConfig, String> keyPrefixesByConfig = new HashMap<ScriptableDataSetConfig, String>();
+
+	/**
+	 * Matches the names of all bindings visible to the scripts of a
+	 * configuration.
+	 */
+	private final Map<ScriptableDataSetConfig, Pattern> bindingNamesByConfig = new HashMap<ScriptableDataSetConfig, Pattern>();
+
+	/**
+	 * Opens the cache in the given directory, creating the directory if
+	 * required.
+	 * 
+	 * @param directory
+	 *            The directory containing the cache file.
+	 */
+	PersistentResultCache(File directory) {
+
+		this.file = new File(directory, FILE_NAME);
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			logger.warn("Cache directory {} couldn't be created.", directory);
+		}
+
+		if (file.isFile()) {
+			try {
+				load();
+			}
+			catch (IOException e) {
+				logger.warn("Reading result cache " + file + " failed.", e);
+				positionsByKey.clear();
+				mappedResults = null;
+			}
+		}
+	}
+
+	/**
+	 * Returns the cached result of the given script.
+	 * 
+	 * @param config
+	 *            The script's configuration.
+	 * @param factory
+	 *            The factory of the engine for the script's configuration.
+	 * @param script
+	 *            The script, with the configuration's prefix removed.
+	 * @return The cached result or {@link #NOT_CACHED}, if no result is
+	 *         cached for the given script.
+	 */
+	synchronized Object get(ScriptableDataSetConfig config, ScriptEngineFactory factory, String script) {
+
+		ByteBuffer key = getKey(config, factory, script);
+
+		if (key == null) {
+			return NOT_CACHED;
+		}
+
+		byte[] newResult = newResults.get(key);
+
+		if (newResult != null) {
+			return decode(ByteBuffer.wrap(newResult));
+		}
+
+		Integer position = positionsByKey.get(key);
+
+		if (position == null) {
+			return NOT_CACHED;
+		}
+
+		ByteBuffer result = mappedResults.duplicate();
+		result.position(position);
+
+		return decode(result);
+	}
+
+	/**
+	 * Adds the result of the given script to this cache, unless its type isn't
+	 * supported.
+	 * 
+	 * @param config
+	 *            The script's configuration.
+	 * @param factory
+	 *            The factory of the engine for the script's configuration.
+	 * @param script
+	 *            The script, with the configuration's prefix removed.
+	 * @param result
+	 *            The result of the script. May be null.
+	 */
+	synchronized void put(ScriptableDataSetConfig config, ScriptEngineFactory factory, String script, Object result) {
+
+		ByteBuffer key = getKey(config, factory, script);
+
+		if (key == null || positionsByKey.containsKey(key) || newResults.containsKey(key)) {
+			return;
+		}
+
+		try {
+			byte[] encoded = encode(result);
+
+			if (encoded != null) {
+				newResults.put(key, encoded);
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Appends all results added since this cache was opened to the cache
+	 * file. The file is locked while being written, as several processes may
+	 * share a cache directory.
+	 */
+	synchronized void close() {
+
+		if (newResults.isEmpty()) {
+			return;
+		}
+
+		RandomAccessFile randomAccessFile = null;
+
+		try {
+			randomAccessFile = new RandomAccessFile(file, "rw");
+			FileChannel channel = randomAccessFile.getChannel();
+			FileLock lock = channel.lock();
+
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(bytes);
+
+				if (!hasValidHeader(channel)) {
+					channel.truncate(0);
+					out.writeInt(MAGIC);
+					out.writeInt(FORMAT_VERSION);
+				}
+				else {
+					// another process may have been aborted since the file was loaded
+					MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+					records.position(HEADER_LENGTH);
+
+					truncate(channel, index(records, null));
+				}
+
+				for (Map.Entry<ByteBuffer, byte[]> oneResult : newResults.entrySet()) {
+					out.write(oneResult.getKey().array());
+					out.writeInt(oneResult.getValue().length);
+					out.write(oneResult.getValue());
+				}
+
+				out.flush();
+
+				channel.position(channel.size());
+				channel.write(ByteBuffer.wrap(bytes.toByteArray()));
+			}
+			finally {
+				lock.release();
+			}
+
+			newResults.clear();
+		}
+		catch (IOException e) {
+			logger.warn("Writing result cache " + file + " failed.", e);
+		}
+		finally {
+			if (randomAccessFile != null) {
+				try {
+					randomAccessFile.close();
+				}
+				catch (IOException e) {
+					logger.warn("Closing result cache " + file + " failed.", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Maps the cache file and indexes the results contained. A truncated last
+	 * record, e.g. caused by an aborted run, is cut off. The file is locked
+	 * meanwhile, as another process may be appending to it.
+	 */
+	private void load() throws IOException {
+
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			FileLock lock = channel.lock();
+
+			try {
+				if (!hasValidHeader(channel)) {
+					logger.warn("Ignoring result cache {} of unknown format.", file);
+					return;
+				}
+
+				mappedResults = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				mappedResults.position(HEADER_LENGTH);
+
+				truncate(channel, index(mappedResults, positionsByKey));
+			}
+			finally {
+				lock.release();
+			}
+		}
+		finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Reads the records from the current position of the given buffer up to
+	 * the last complete one.
+	 * 
+	 * @param records
+	 *            The records to read.
+	 * @param positions
+	 *            A map to which the position of each result is added by key.
+	 *            May be null.
+	 * @return The end of the last complete record.
+	 */
+	private static int index(ByteBuffer records, Map<ByteBuffer, Integer> positions) {
+
+		int theValue = records.position();
+
+		while (records.remaining() >= DIGEST_LENGTH + 4) {
+
+			byte[] key = new byte[DIGEST_LENGTH];
+			records.get(key);
+
+			int length = records.getInt();
+
+			if (length < 0 || length > records.remaining()) {
+				break;
+			}
+
+			if (positions != null) {
+				positions.put(ByteBuffer.wrap(key), records.position());
+			}
+
+			records.position(records.position() + length);
+			theValue = records.position();
+		}
+
+		return theValue;
+	}
+
+	/**
+	 * Cuts off anything following the given end of the last complete record.
+	 */
+	private void truncate(FileChannel channel, long validLength) throws IOException {
+
+		if (validLength < channel.size()) {
+			logger.warn("Removing truncated last record of result cache {}.", file);
+			channel.truncate(validLength);
+		}
+	}
+
+	private boolean hasValidHeader(FileChannel channel) throws IOException {
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+
+		if (channel.read(header, 0) != HEADER_LENGTH) {
+			return false;
+		}
+
+		header.flip();
+
+		return header.getInt() == MAGIC && header.getInt() == FORMAT_VERSION;
+	}
+
+	/**
+	 * Returns the digest identifying the given script or null, if the script
+	 * refers to any bindings and thus can't be cached.
+	 */
+	private ByteBuffer getKey(ScriptableDataSetConfig config, ScriptEngineFactory factory, String script) {
+
+		Pattern bindingNames = bindingNamesByConfig.get(config);
+
+		if (bindingNames == null) {
+
+			StringBuilder names = new StringBuilder("\\b(");
+			names.append(ScriptableTable.ROW_BINDING).append('|');
+			names.append(ScriptableTable.ROW_INDEX_BINDING).append('|');
+			names.append(ScriptableTable.TABLE_NAME_BINDING).append('|');
+			names.append(ScriptableTable.COLUMN_NAME_BINDING);
+
+			for (String oneVariable : config.getTableVariables().keySet()) {
+				names.append('|').append(Pattern.quote(oneVariable));
+			}
+
+			bindingNames = Pattern.compile(names.append(")\\b").toString());
+			bindingNamesByConfig.put(config, bindingNames);
+		}
+
+		// results of the built-in languages depend on the row or are random
+		if (factory instanceof BuiltInScriptEngineFactory || bindingNames.matcher(script).find()) {
+			return null;
+		}
+
+		String keyPrefix = getKeyPrefix(config, factory);
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(keyPrefix.getBytes(UTF_8));
+			digest.update(script.getBytes(UTF_8));
+
+			return ByteBuffer.wrap(digest.digest());
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Describes the language, engine and handlers of the given configuration.
+	 */
+	private String getKeyPrefix(ScriptableDataSetConfig config, ScriptEngineFactory factory) {
+
+		String theValue = keyPrefixesByConfig.get(config);
+
+		if (theValue == null) {
+
+			StringBuilder keyPrefix = new StringBuilder();
+			keyPrefix.append(config.getLanguageName()).append('\0');
+			keyPrefix.append(factory.getEngineName()).append('\0');
+			keyPrefix.append(factory.getEngineVersion()).append('\0');
+
+			for (ScriptInvocationHandler oneHandler : StandardHandlerConfig.getStandardHandlersByLanguage(config.getLanguageName())) {
+				keyPrefix.append(oneHandler.getClass().getName()).append('\0');
+			}
+			for (ScriptInvocationHandler oneHandler : config.getHandlers()) {
+				keyPrefix.append(oneHandler.getClass().getName()).append('\0');
+			}
+			for (String oneScript : config.getSetupScripts()) {
+				keyPrefix.append(oneScript).append('\0');
+			}
+			for (Map.Entry<String, String> oneVariable : config.getTableVariables().entrySet()) {
+				keyPrefix.append(oneVariable.getKey()).append('=').append(oneVariable.getValue()).append('\0');
+			}
+
+			theValue = keyPrefix.append('\0').toString();
+			keyPrefixesByConfig.put(config, theValue);
+		}
+
+		return theValue;
+	}
+
+	/**
+	 * Encodes the given result or returns null, if its type isn't supported.
+	 */
+	private static byte[] encode(Object result) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		if (result == null) {
+			out.writeByte(NULL);
+		}
+		else if (result instanceof String) {
+			byte[] utf8 = ((String) result).getBytes(UTF_8);
+			out.writeByte(STRING);
+			out.writeInt(utf8.length);
+			out.write(utf8);
+		}
+		else if (result instanceof Integer) {
+			out.writeByte(INTEGER);
+			out.writeInt((Integer) result);
+		}
+		else if (result instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) result);
+		}
+		else if (result instanceof Double) {
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) result);
+		}
+		else if (result instanceof Float) {
+			out.writeByte(FLOAT);
+			out.writeFloat((Float) result);
+		}
+		else if (result instanceof Short) {
+			out.writeByte(SHORT);
+			out.writeShort((Short) result);
+		}
+		else if (result instanceof Byte) {
+			out.writeByte(BYTE);
+			out.writeByte((Byte) result);
+		}
+		else if (result instanceof Boolean) {
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) result);
+		}
+		else if (result instanceof Character) {
+			out.writeByte(CHARACTER);
+			out.writeChar((Character) result);
+		}
+		else if (result instanceof BigInteger) {
+			byte[] value = ((BigInteger) result).toByteArray();
+			out.writeByte(BIG_INTEGER);
+			out.writeInt(value.length);
+			out.write(value);
+		}
+		else if (result instanceof BigDecimal) {
+			byte[] value = ((BigDecimal) result).unscaledValue().toByteArray();
+			out.writeByte(BIG_DECIMAL);
+			out.writeInt(((BigDecimal) result).scale());
+			out.writeInt(value.length);
+			out.write(value);
+		}
+		else if (result instanceof Timestamp) {
+			out.writeByte(TIMESTAMP);
+			out.writeLong(((Timestamp) result).getTime());
+			out.writeInt(((Timestamp) result).getNanos());
+		}
+		else if (result instanceof java.sql.Date) {
+			out.writeByte(SQL_DATE);
+			out.writeLong(((Date) result).getTime());
+		}
+		else if (result instanceof Time) {
+			out.writeByte(TIME);
+			out.writeLong(((Date) result).getTime());
+		}
+		else if (result.getClass() == Date.class) {
+			out.writeByte(DATE);
+			out.writeLong(((Date) result).getTime());
+		}
+		else if (result instanceof byte[]) {
+			out.writeByte(BYTES);
+			out.writeInt(((byte[]) result).length);
+			out.write((byte[]) result);
+		}
+		else {
+			return null;
+		}
+
+		out.flush();
+
+		return bytes.toByteArray();
+	}
+
+	private static Object decode(ByteBuffer in) {
+
+		byte type = in.get();
+
+		switch (type) {
+
+			case NULL:
+				return null;
+			case STRING:
+				return new String(getBytes(in), UTF_8);
+			case INTEGER:
+				return in.getInt();
+			case LONG:
+				return in.getLong();
+			case DOUBLE:
+				return in.getDouble();
+			case FLOAT:
+				return in.getFloat();
+			case SHORT:
+				return in.getShort();
+			case BYTE:
+				return in.get();
+			case BOOLEAN:
+				return in.get() != 0;
+			case CHARACTER:
+				return in.getChar();
+			case BIG_INTEGER:
+				return new BigInteger(getBytes(in));
+			case BIG_DECIMAL:
+				int scale = in.getInt();
+				return new BigDecimal(new BigInteger(getBytes(in)), scale);
+			case TIMESTAMP:
+				Timestamp timestamp = new Timestamp(in.getLong());
+				timestamp.setNanos(in.getInt());
+				return timestamp;
+			case SQL_DATE:
+				return new java.sql.Date(in.getLong());
+			case TIME:
+				return new Time(in.getLong());
+			case DATE:
+				return new Date(in.getLong());
+			case BYTES:
+				return getBytes(in);
+			default:
+				throw new IllegalStateException("Unknown type " + type + " in result cache.");
+		}
+	}
+
+	private static byte[] getBytes(ByteBuffer in) {
+
+		byte[] theValue = new byte[in.getInt()];
+		in.get(theValue);
+
+		return theValue;
+	}
+}
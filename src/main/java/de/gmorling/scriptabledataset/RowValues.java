@@ -0,0 +1,120 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+
+/**
+ * The values of one row, as exposed to scripts by the binding
+ * {@link ScriptableTable#ROW_BINDING}. Values are read upon access, so
+ * scripted values of other columns are evaluated only if a script refers to
+ * them. Column names are matched case-insensitively, the column of the field
+ * being evaluated is not contained. Scripts of one row must not refer to
+ * each other cyclically.
+ * 
+ * @author Gunnar Morling
+ */
+abstract class RowValues extends AbstractMap<String, Object> {
+
+	private final Column[] columns;
+
+	private final String currentColumn;
+
+	/**
+	 * Creates a new RowValues.
+	 * 
+	 * @param columns
+	 *            The columns of the row's table.
+	 * @param currentColumn
+	 *            The column of the field being evaluated.
+	 */
+	RowValues(Column[] columns, String currentColumn) {
+
+		this.columns = columns;
+		this.currentColumn = currentColumn;
+	}
+
+	/**
+	 * Returns the value of the given column of this row.
+	 * 
+	 * @param column
+	 *            The name of one of the row's columns.
+	 * @return The column's value, with scripts evaluated.
+	 * @throws DataSetException
+	 *             In case the value couldn't be read.
+	 */
+	protected abstract Object getValue(String column) throws DataSetException;
+
+	@Override
+	public Object get(Object key) {
+
+		String column = getColumnName(key);
+
+		return column == null ? null : getValueOrFail(column);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+
+		return getColumnName(key) != null;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+
+		Map<String, Object> theValue = new LinkedHashMap<String, Object>();
+
+		for (Column oneColumn : columns) {
+			if (!oneColumn.getColumnName().equalsIgnoreCase(currentColumn)) {
+				theValue.put(oneColumn.getColumnName(), getValueOrFail(oneColumn.getColumnName()));
+			}
+		}
+
+		return Collections.unmodifiableMap(theValue).entrySet();
+	}
+
+	private String getColumnName(Object key) {
+
+		if (!(key instanceof String) || ((String) key).equalsIgnoreCase(currentColumn)) {
+			return null;
+		}
+
+		for (Column oneColumn : columns) {
+			if (oneColumn.getColumnName().equalsIgnoreCase((String) key)) {
+				return oneColumn.getColumnName();
+			}
+		}
+
+		return null;
+	}
+
+	private Object getValueOrFail(String column) {
+
+		try {
+			return getValue(column);
+		}
+		catch (DataSetException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
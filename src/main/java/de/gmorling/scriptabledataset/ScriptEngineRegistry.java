@@ -0,0 +1,294 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the scripting engines for a list of configurations. The engine of
+ * a configuration is looked up when a script with the configuration's prefix
+ * has to be evaluated for the first time, so no engine is created for
+ * prefixes not used by a data set. Engines are then shared by all tables of a
+ * data set, until the registry is closed. The built-in languages described at
+ * {@link BuiltInScriptEngineFactory} are resolved without the
+ * <code>ScriptEngineManager</code>.
+ * <p>
+ * For evaluation by several threads at once, additional engines will be
+ * created for languages whose engines are not thread-safe. These engines are
+ * kept in a pool per language, which initially contains the first engine, so
+ * additional engines are only created if the pooled ones are all in use.
+ * </p>
+ * 
+ * @author Gunnar Morling
+ */
+public class ScriptEngineRegistry implements Closeable {
+
+	private final Logger logger = LoggerFactory.getLogger(ScriptEngineRegistry.class);
+
+	private final List<ScriptableDataSetConfig> configurations;
+
+	private Map<String, ScriptEvaluator> evaluatorsByPrefix = new ConcurrentHashMap<String, ScriptEvaluator>();
+
+	private ScriptEngineManager manager;
+
+	private Map<String, ScriptEngineFactory> factoriesByLanguage = new HashMap<String, ScriptEngineFactory>();
+
+	private Map<String, LinkedList<ScriptEvaluator>> pooledEvaluatorsByPrefix = new HashMap<String, LinkedList<ScriptEvaluator>>();
+
+	/**
+	 * Creates a new ScriptEngineRegistry.
+	 * 
+	 * @param configurations
+	 *            The configurations to resolve engines for. May not be null.
+	 */
+	public ScriptEngineRegistry(List<ScriptableDataSetConfig> configurations) {
+
+		this.configurations = configurations;
+	}
+
+	/**
+	 * Returns the evaluator for the given configuration, loading its engine
+	 * if required.
+	 * 
+	 * @param config
+	 *            One of the configurations of this registry.
+	 * @return The evaluator for the given configuration.
+	 * @throws RuntimeException
+	 *             If no engine could be found for the configuration's
+	 *             language.
+	 */
+	ScriptEvaluator getEvaluator(ScriptableDataSetConfig config) {
+
+		ScriptEvaluator theValue = evaluatorsByPrefix.get(config.getPrefix());
+
+		if (theValue == null) {
+
+			synchronized (this) {
+
+				theValue = evaluatorsByPrefix.get(config.getPrefix());
+
+				if (theValue == null) {
+
+					theValue = loadEngine(config);
+
+					if (!theValue.isThreadSafe()) {
+						getPool(config.getPrefix()).add(theValue);
+					}
+
+					evaluatorsByPrefix.put(config.getPrefix(), theValue);
+				}
+			}
+		}
+
+		return theValue;
+	}
+
+	/**
+	 * Returns the factory of the engine for the given configuration without
+	 * creating an engine, e.g. to describe the engine by its name and version.
+	 * 
+	 * @param config
+	 *            One of the configurations of this registry.
+	 * @return The factory of the engine for the given configuration.
+	 * @throws RuntimeException
+	 *             If no engine could be found for the configuration's
+	 *             language.
+	 */
+	ScriptEngineFactory getFactory(ScriptableDataSetConfig config) {
+
+		ScriptEvaluator evaluator = evaluatorsByPrefix.get(config.getPrefix());
+
+		if (evaluator != null) {
+			return evaluator.getEngine().getFactory();
+		}
+
+		synchronized (this) {
+
+			ScriptEngineFactory theValue = factoriesByLanguage.get(config.getLanguageName());
+
+			if (theValue == null) {
+
+				theValue = BuiltInScriptEngineFactory.getFactory(config.getLanguageName());
+
+				if (theValue == null) {
+					for (ScriptEngineFactory oneFactory : getManager().getEngineFactories()) {
+						if (oneFactory.getNames().contains(config.getLanguageName())) {
+							theValue = oneFactory;
+							break;
+						}
+					}
+				}
+
+				if (theValue == null) {
+					throw new RuntimeException("No scripting engine found for language \"" + config.getLanguageName() + "\".");
+				}
+
+				factoriesByLanguage.put(config.getLanguageName(), theValue);
+			}
+
+			return theValue;
+		}
+	}
+
+	/**
+	 * Returns an evaluator for the given configuration for exclusive use by the
+	 * calling thread until it is passed to
+	 * {@link #releaseEvaluator(ScriptEvaluator)}. Evaluators of thread-safe
+	 * engines are shared, for other engines an evaluator will be taken from
+	 * the pool or, if all pooled evaluators are in use, created with a new
+	 * engine.
+	 * 
+	 * @param config
+	 *            One of the configurations of this registry.
+	 * @return An evaluator for the given configuration.
+	 */
+	ScriptEvaluator acquireEvaluator(ScriptableDataSetConfig config) {
+
+		ScriptEvaluator shared = getEvaluator(config);
+
+		if (shared.isThreadSafe()) {
+			return shared;
+		}
+
+		synchronized (this) {
+
+			LinkedList<ScriptEvaluator> pool = getPool(config.getPrefix());
+
+			if (!pool.isEmpty()) {
+				return pool.removeFirst();
+			}
+		}
+
+		return new ScriptEvaluator(config, shared.getEngine().getFactory().getScriptEngine());
+	}
+
+	/**
+	 * Returns an evaluator obtained from
+	 * {@link #acquireEvaluator(ScriptableDataSetConfig)} to this registry.
+	 * 
+	 * @param evaluator
+	 *            The evaluator to return.
+	 */
+	void releaseEvaluator(ScriptEvaluator evaluator) {
+
+		if (evaluator.isThreadSafe()) {
+			return;
+		}
+
+		synchronized (this) {
+			getPool(evaluator.getConfig().getPrefix()).add(evaluator);
+		}
+	}
+
+	/**
+	 * Releases all engines loaded by this registry. They will be loaded again
+	 * if another script is evaluated afterwards. Engines implementing
+	 * {@link Closeable} will be closed.
+	 */
+	public synchronized void close() {
+
+		for (ScriptEvaluator oneEvaluator : evaluatorsByPrefix.values()) {
+			close(oneEvaluator.getEngine());
+		}
+
+		for (List<ScriptEvaluator> onePool : pooledEvaluatorsByPrefix.values()) {
+			for (ScriptEvaluator oneEvaluator : onePool) {
+
+				// the shared evaluators have been closed above
+				if (oneEvaluator != evaluatorsByPrefix.get(oneEvaluator.getConfig().getPrefix())) {
+					close(oneEvaluator.getEngine());
+				}
+			}
+		}
+
+		evaluatorsByPrefix.clear();
+		pooledEvaluatorsByPrefix.clear();
+	}
+
+	private void close(ScriptEngine engine) {
+
+		if (engine instanceof Closeable) {
+			try {
+				((Closeable) engine).close();
+			}
+			catch (IOException e) {
+				logger.warn("Closing scripting engine " + engine + " failed.", e);
+			}
+		}
+	}
+
+	private ScriptEvaluator loadEngine(ScriptableDataSetConfig config) {
+
+		Validate.isTrue(configurations.contains(config), "Unknown configuration " + config + ".");
+
+		ScriptEngine engine;
+		BuiltInScriptEngineFactory builtIn = BuiltInScriptEngineFactory.getFactory(config.getLanguageName());
+
+		if (builtIn != null) {
+			engine = builtIn.getScriptEngine();
+		}
+		else {
+			engine = getManager().getEngineByName(config.getLanguageName());
+		}
+
+		if (engine == null) {
+			throw new RuntimeException("No scripting engine found for language \"" + config.getLanguageName() + "\".");
+		}
+
+		logger.info("Registered scripting engine {} for language {}.", engine, config.getLanguageName());
+
+		return new ScriptEvaluator(config, engine);
+	}
+
+	/**
+	 * Returns the pool of idle evaluators for the given prefix. Must be called
+	 * while holding the lock of this registry.
+	 */
+	private LinkedList<ScriptEvaluator> getPool(String prefix) {
+
+		LinkedList<ScriptEvaluator> theValue = pooledEvaluatorsByPrefix.get(prefix);
+
+		if (theValue == null) {
+			theValue = new LinkedList<ScriptEvaluator>();
+			pooledEvaluatorsByPrefix.put(prefix, theValue);
+		}
+
+		return theValue;
+	}
+
+	private ScriptEngineManager getManager() {
+
+		if (manager == null) {
+			manager = new ScriptEngineManager();
+		}
+
+		return manager;
+	}
+}
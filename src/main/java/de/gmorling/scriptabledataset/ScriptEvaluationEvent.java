@@ -0,0 +1,218 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+/**
+ * Describes the evaluation of one scripted field.
+ * 
+ * @author Gunnar Morling
+ */
+public class ScriptEvaluationEvent {
+
+	/**
+	 * The ways in which the value of a scripted field can be obtained.
+	 */
+	public enum EvaluationPath {
+
+		/**
+		 * The compiled form of the script was taken from the compiled script
+		 * cache.
+		 */
+		COMPILED_SCRIPT_CACHE_HIT,
+
+		/**
+		 * The script was compiled and added to the compiled script cache.
+		 */
+		COMPILED_SCRIPT_CACHE_MISS,
+
+		/**
+		 * The script was evaluated without compilation, as the engine doesn't
+		 * implement <code>Compilable</code> or the compiled script cache is
+		 * disabled.
+		 */
+		NOT_COMPILED,
+
+		/**
+		 * The script was interpreted as simple expression without invoking the
+		 * engine.
+		 */
+		INTERPRETED,
+
+		/**
+		 * The script was evaluated together with the other scripts of a batch.
+		 * The time of the batch is distributed evenly over its fields.
+		 */
+		BATCH,
+
+		/**
+		 * The result was taken from the persistent result cache, the script
+		 * wasn't evaluated.
+		 */
+		PERSISTENT_RESULT_CACHE_HIT
+	}
+
+	private final String tableName;
+
+	private final int row;
+
+	private final String column;
+
+	private final ScriptableDataSetConfig config;
+
+	private String script;
+
+	private long preInvokeNanos;
+
+	private long evaluationNanos;
+
+	private long postInvokeNanos;
+
+	private EvaluationPath evaluationPath = EvaluationPath.NOT_COMPILED;
+
+	ScriptEvaluationEvent(String tableName, int row, String column, ScriptableDataSetConfig config) {
+
+		this.tableName = tableName;
+		this.row = row;
+		this.column = column;
+		this.config = config;
+	}
+
+	public String getTableName() {
+
+		return tableName;
+	}
+
+	public int getRow() {
+
+		return row;
+	}
+
+	public String getColumn() {
+
+		return column;
+	}
+
+	/**
+	 * Returns the configuration whose prefix the field started with.
+	 * 
+	 * @return The configuration used for evaluation.
+	 */
+	public ScriptableDataSetConfig getConfig() {
+
+		return config;
+	}
+
+	/**
+	 * Returns the evaluated script, without prefix and before any handler was
+	 * invoked.
+	 * 
+	 * @return The evaluated script.
+	 */
+	public String getScript() {
+
+		return script;
+	}
+
+	/**
+	 * Returns the time spent in the <code>preInvoke()</code> methods of all
+	 * handlers.
+	 * 
+	 * @return The time in nano seconds.
+	 */
+	public long getPreInvokeNanos() {
+
+		return preInvokeNanos;
+	}
+
+	/**
+	 * Returns the time spent for compiling and evaluating the script itself.
+	 * 
+	 * @return The time in nano seconds.
+	 */
+	public long getEvaluationNanos() {
+
+		return evaluationNanos;
+	}
+
+	/**
+	 * Returns the time spent in the <code>postInvoke()</code> methods of all
+	 * handlers.
+	 * 
+	 * @return The time in nano seconds.
+	 */
+	public long getPostInvokeNanos() {
+
+		return postInvokeNanos;
+	}
+
+	/**
+	 * Returns the total time needed to evaluate the field, including all
+	 * handlers.
+	 * 
+	 * @return The time in nano seconds.
+	 */
+	public long getTotalNanos() {
+
+		return preInvokeNanos + evaluationNanos + postInvokeNanos;
+	}
+
+	/**
+	 * Returns the way in which the value of the field was obtained.
+	 * 
+	 * @return The evaluation path. Never null.
+	 */
+	public EvaluationPath getEvaluationPath() {
+
+		return evaluationPath;
+	}
+
+	/**
+	 * Whether the compiled form of the script was found in the compiled script
+	 * cache.
+	 * 
+	 * @return True, if the compiled script was taken from the cache, false
+	 *         otherwise.
+	 */
+	public boolean isCompiledScriptCacheHit() {
+
+		return evaluationPath == EvaluationPath.COMPILED_SCRIPT_CACHE_HIT;
+	}
+
+	void setScript(String script) {
+
+		this.script = script;
+	}
+
+	void setPreInvokeNanos(long preInvokeNanos) {
+
+		this.preInvokeNanos = preInvokeNanos;
+	}
+
+	void setEvaluationNanos(long evaluationNanos) {
+
+		this.evaluationNanos = evaluationNanos;
+	}
+
+	void setPostInvokeNanos(long postInvokeNanos) {
+
+		this.postInvokeNanos = postInvokeNanos;
+	}
+
+	void setEvaluationPath(EvaluationPath evaluationPath) {
+
+		this.evaluationPath = evaluationPath;
+	}
+}
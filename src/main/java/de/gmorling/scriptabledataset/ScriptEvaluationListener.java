@@ -0,0 +1,55 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+/**
+ * Implementations can be registered with a ScriptableDataSet to be notified
+ * about each script evaluation, e.g. to collect metrics. Listeners are only
+ * invoked, if registered, so there is no measuring overhead otherwise.
+ * <p>
+ * Implementations must be thread-safe, as scripts may be evaluated by several
+ * threads at once.
+ * </p>
+ * 
+ * @author Gunnar Morling
+ * @see ScriptMetrics
+ */
+public interface ScriptEvaluationListener {
+
+	/**
+	 * Will be called after a script contained in a field of a data set was
+	 * evaluated or its result was read from the persistent result cache, as
+	 * indicated by {@link ScriptEvaluationEvent#getEvaluationPath()}.
+	 * 
+	 * @param event
+	 *            Describes the evaluated field, the script and the time
+	 *            needed for its evaluation.
+	 */
+	void scriptEvaluated(ScriptEvaluationEvent event);
+
+	/**
+	 * Will be called when a scripted field is read, whose script result was
+	 * memoized before, so no evaluation took place.
+	 * 
+	 * @param tableName
+	 *            The name of the table containing the field.
+	 * @param row
+	 *            The row of the field.
+	 * @param column
+	 *            The column of the field.
+	 */
+	void memoizedValueRead(String tableName, int row, String column);
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.util.List;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.gmorling.scriptabledataset.handlers.BatchScriptInvocationHandler;
+
+/**
+ * Evaluates scripts for one scripting language configuration, applying all
+ * invocation handlers of that configuration as arranged by a
+ * {@link HandlerPipeline}.
+ * 
+ * @author Gunnar Morling
+ */
+class ScriptEvaluator {
+
+	private final Logger logger = LoggerFactory.getLogger(ScriptEvaluator.class);
+
+	private final ScriptableDataSetConfig config;
+
+	private final ScriptEngine engine;
+
+	private final HandlerPipeline handlers;
+
+	private final CompiledScriptCache scriptCache;
+
+	/**
+	 * Evaluates simple expressions without the engine or null, if this isn't
+	 * requested by the configuration or supported for its language.
+	 */
+	private final SimpleExpressionEvaluator simpleExpressions;
+
+	/**
+	 * Whether scripts may be rewritten by preInvoke handlers, in which case
+	 * the rewritten scripts are interpreted if they are simple expressions.
+	 * Otherwise, the handlers are skipped for simple expressions.
+	 */
+	private final boolean rewritingHandlers;
+
+	/**
+	 * Creates a new ScriptEvaluator, evaluating the setup scripts of the given
+	 * configuration with the given engine.
+	 * 
+	 * @param config
+	 *            The configuration to evaluate scripts for. May not be null.
+	 * @param engine
+	 *            The engine for the configuration's language. May not be null.
+	 */
+	ScriptEvaluator(ScriptableDataSetConfig config, ScriptEngine engine) {
+
+		this.config = config;
+		this.engine = engine;
+		this.handlers = new HandlerPipeline(config, engine);
+		this.scriptCache = new CompiledScriptCache(engine, config.getCompiledScriptCacheSize());
+		this.simpleExpressions = config.isInterpretSimpleExpressions() ? SimpleExpressionEvaluator.forLanguage(config.getLanguageName()) : null;
+		this.rewritingHandlers = handlers.rewritesLiterals();
+
+		for (String oneScript : config.getSetupScripts()) {
+			evaluate(oneScript);
+		}
+	}
+
+	/**
+	 * Evaluates the given script. May be called by several threads at once, if
+	 * this evaluator's engine is thread-safe.
+	 * 
+	 * @param script
+	 *            The script to evaluate, with the configuration's prefix
+	 *            already removed.
+	 * @return The result of the script evaluation, as processed by all
+	 *         handlers.
+	 */
+	Object evaluate(String script) {
+
+		return evaluate(script, null);
+	}
+
+	/**
+	 * Evaluates the given script. May be called by several threads at once, if
+	 * this evaluator's engine is thread-safe.
+	 * 
+	 * @param script
+	 *            The script to evaluate, with the configuration's prefix
+	 *            already removed.
+	 * @param event
+	 *            An event to be populated with the script and the time spent
+	 *            for its evaluation. May be null, in which case no time is
+	 *            measured.
+	 * @return The result of the script evaluation, as processed by all
+	 *         handlers.
+	 */
+	Object evaluate(String script, ScriptEvaluationEvent event) {
+
+		return evaluate(script, event, null);
+	}
+
+	/**
+	 * Evaluates the given script with the given bindings. May be called by
+	 * several threads at once, if this evaluator's engine is thread-safe.
+	 * 
+	 * @param script
+	 *            The script to evaluate, with the configuration's prefix
+	 *            already removed.
+	 * @param event
+	 *            An event to be populated with the script and the time spent
+	 *            for its evaluation. May be null, in which case no time is
+	 *            measured.
+	 * @param bindings
+	 *            Variables to be visible to the script in addition to those of
+	 *            the engine. May be null.
+	 * @return The result of the script evaluation, as processed by all
+	 *         handlers.
+	 */
+	Object evaluate(String script, ScriptEvaluationEvent event, Bindings bindings) {
+
+		Object theValue;
+		long start = event != null ? System.nanoTime() : 0;
+
+		try {
+
+			if (event != null) {
+				event.setScript(script);
+			}
+
+			String preInvokedScript = rewritingHandlers ? handlers.preInvoke(script) : script;
+
+			if (simpleExpressions != null) {
+
+				long preInvoked = event != null ? System.nanoTime() : 0;
+
+				theValue = simpleExpressions.evaluate(preInvokedScript);
+
+				if (theValue != SimpleExpressionEvaluator.NOT_SIMPLE) {
+
+					long evaluated = event != null ? System.nanoTime() : 0;
+
+					theValue = handlers.postInvoke(theValue);
+
+					if (event != null) {
+						event.setEvaluationPath(ScriptEvaluationEvent.EvaluationPath.INTERPRETED);
+						event.setPreInvokeNanos(preInvoked - start);
+						event.setEvaluationNanos(evaluated - preInvoked);
+						event.setPostInvokeNanos(System.nanoTime() - evaluated);
+					}
+
+					return theValue;
+				}
+			}
+
+			script = rewritingHandlers ? preInvokedScript : handlers.preInvoke(script);
+
+			logger.debug("Executing script: {}", script);
+
+			long preInvoked = event != null ? System.nanoTime() : 0;
+
+			// the actual script evaluation, compiling the script only once
+			theValue = scriptCache.eval(script, event, bindings != null ? createContext(bindings) : null);
+
+			long evaluated = event != null ? System.nanoTime() : 0;
+
+			theValue = handlers.postInvoke(theValue);
+
+			if (event != null) {
+				event.setPreInvokeNanos(preInvoked - start);
+				event.setEvaluationNanos(evaluated - preInvoked);
+				event.setPostInvokeNanos(System.nanoTime() - evaluated);
+			}
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+
+		return theValue;
+	}
+
+	/**
+	 * Compiles the given script without evaluating it, so a later evaluation
+	 * finds its compiled form in the cache.
+	 * 
+	 * @param script
+	 *            The script to compile, with the configuration's prefix
+	 *            already removed.
+	 */
+	void precompile(String script) {
+
+		try {
+			scriptCache.compile(handlers.preInvoke(script));
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Evaluates the given scripts with one engine invocation. The handlers
+	 * preceding the batch handler are applied to each script, the batch handler
+	 * and all subsequent handlers to the combined script. The combined script
+	 * is not compiled, as it will hardly be evaluated again.
+	 * 
+	 * @param scripts
+	 *            The scripts to evaluate, with the configuration's prefix
+	 *            already removed.
+	 * @return A list with the results of the given scripts, as processed by
+	 *         all handlers.
+	 * @throws IllegalStateException
+	 *             If this evaluator's configuration has no batch handler.
+	 */
+	List<Object> evaluateBatch(List<String> scripts) {
+
+		if (!isBatchCapable()) {
+			throw new IllegalStateException("No batch handler configured for language " + config.getLanguageName() + ".");
+		}
+
+		List<Object> theValue;
+
+		try {
+
+			String script = handlers.preInvokeBatch(scripts);
+
+			logger.debug("Executing batch script: {}", script);
+
+			theValue = handlers.postInvokeBatch(engine.eval(script));
+
+			if (theValue.size() != scripts.size()) {
+				throw new IllegalStateException("Batch of " + scripts.size() + " scripts yielded " + theValue.size() + " results.");
+			}
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+
+		return theValue;
+	}
+
+	/**
+	 * Whether this evaluator's configuration contains a
+	 * {@link BatchScriptInvocationHandler}.
+	 * 
+	 * @return True, if {@link #evaluateBatch(List)} may be invoked, false
+	 *         otherwise.
+	 */
+	boolean isBatchCapable() {
+
+		return handlers.isBatchCapable();
+	}
+
+	ScriptableDataSetConfig getConfig() {
+
+		return config;
+	}
+
+	ScriptEngine getEngine() {
+
+		return engine;
+	}
+
+	/**
+	 * Whether the engine of this evaluator may be used by several threads at
+	 * once, as indicated by the engine factory's "THREADING" parameter.
+	 * 
+	 * @return True, if this evaluator may be shared between threads, false
+	 *         otherwise.
+	 */
+	boolean isThreadSafe() {
+
+		return engine.getFactory().getParameter("THREADING") != null;
+	}
+
+	/**
+	 * Creates a context exposing the given bindings in addition to the
+	 * engine's own variables. The bindings take the place of the global scope,
+	 * as the engine scope of some engines can't be replaced without losing
+	 * their global objects.
+	 */
+	private ScriptContext createContext(Bindings bindings) {
+
+		return new BindingsScriptContext(engine.getContext(), bindings);
+	}
+}
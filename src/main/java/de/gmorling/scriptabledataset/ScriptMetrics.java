@@ -0,0 +1,405 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.gmorling.scriptabledataset.ScriptEvaluationEvent.EvaluationPath;
+
+/**
+ * A {@link ScriptEvaluationListener}, that collects evaluation counts and
+ * latencies per prefix and per expression in memory, as well as the number
+ * of fields per {@link EvaluationPath} and reads of memoized values. A
+ * summary can be obtained using {@link #getReport()}.
+ * <p>
+ * Hits of the persistent result cache are only counted, but not included in
+ * the statistics per prefix and expression, as no script is evaluated.
+ * </p>
+ * <p>
+ * Optionally, each script taking longer than a given threshold is logged
+ * together with the table, row and column of its field.
+ * </p>
+ * <p>
+ * Latency percentiles are approximated using histograms with power-of-two
+ * buckets. The number of expressions tracked individually is limited, further
+ * expressions are accounted as {@link #OTHER_EXPRESSIONS}.
+ * </p>
+ * 
+ * @author Gunnar Morling
+ */
+public class ScriptMetrics implements ScriptEvaluationListener {
+
+	/**
+	 * The default maximum number of expressions tracked individually.
+	 */
+	public static final int DEFAULT_MAX_EXPRESSIONS = 1000;
+
+	/**
+	 * The key under which all expressions beyond the maximum number of
+	 * expressions are tracked.
+	 */
+	public static final String OTHER_EXPRESSIONS = "<other>";
+
+	private final Logger logger = LoggerFactory.getLogger(ScriptMetrics.class);
+
+	private final int maxExpressions;
+
+	private long slowScriptThresholdNanos = -1;
+
+	private final Map<String, Statistics> statisticsByPrefix = new LinkedHashMap<String, Statistics>();
+
+	private final Map<String, Statistics> statisticsByExpression = new LinkedHashMap<String, Statistics>();
+
+	private final long[] evaluationsByPath = new long[EvaluationPath.values().length];
+
+	private long memoizedValueReads;
+
+	/**
+	 * Creates a new ScriptMetrics, tracking up to
+	 * {@link #DEFAULT_MAX_EXPRESSIONS} expressions individually.
+	 */
+	public ScriptMetrics() {
+
+		this(DEFAULT_MAX_EXPRESSIONS);
+	}
+
+	/**
+	 * Creates a new ScriptMetrics.
+	 * 
+	 * @param maxExpressions
+	 *            The maximum number of expressions to be tracked
+	 *            individually. Must not be negative.
+	 */
+	public ScriptMetrics(int maxExpressions) {
+
+		Validate.isTrue(maxExpressions >= 0, "The maximum number of expressions must not be negative.");
+
+		this.maxExpressions = maxExpressions;
+	}
+
+	/**
+	 * Sets a threshold, above which the evaluation of a field is logged as
+	 * warning, including table, row and column of the field. Disabled by
+	 * default.
+	 * 
+	 * @param slowScriptThresholdMillis
+	 *            The threshold in milli seconds or a negative value to disable
+	 *            logging of slow scripts.
+	 */
+	public synchronized void setSlowScriptThresholdMillis(long slowScriptThresholdMillis) {
+
+		this.slowScriptThresholdNanos = slowScriptThresholdMillis < 0 ? -1 : slowScriptThresholdMillis * 1000000;
+	}
+
+	public synchronized void scriptEvaluated(ScriptEvaluationEvent event) {
+
+		evaluationsByPath[event.getEvaluationPath().ordinal()]++;
+
+		if (event.getEvaluationPath() == EvaluationPath.PERSISTENT_RESULT_CACHE_HIT) {
+			return;
+		}
+
+		String prefix = event.getConfig().getPrefix();
+
+		getOrCreate(statisticsByPrefix, prefix).add(event);
+
+		String expression = prefix + event.getScript();
+		Statistics expressionStatistics = statisticsByExpression.get(expression);
+
+		if (expressionStatistics == null) {
+			expressionStatistics = getOrCreate(
+				statisticsByExpression,
+				statisticsByExpression.size() < maxExpressions ? expression : OTHER_EXPRESSIONS);
+		}
+
+		expressionStatistics.add(event);
+
+		if (slowScriptThresholdNanos >= 0 && event.getTotalNanos() > slowScriptThresholdNanos) {
+			logger.warn(
+				"Slow script in table {}, row {}, column {} took {} ms: {}",
+				new Object[] { event.getTableName(), event.getRow(), event.getColumn(), event.getTotalNanos() / 1000000, expression });
+		}
+	}
+
+	public synchronized void memoizedValueRead(String tableName, int row, String column) {
+
+		memoizedValueReads++;
+	}
+
+	/**
+	 * Returns the statistics for all fields with the given prefix.
+	 * 
+	 * @param prefix
+	 *            The prefix of a configuration.
+	 * @return A copy of the statistics for the given prefix or null, if no
+	 *         field with that prefix was evaluated.
+	 */
+	public synchronized Statistics getStatisticsByPrefix(String prefix) {
+
+		Statistics statistics = statisticsByPrefix.get(prefix);
+
+		return statistics == null ? null : new Statistics(statistics);
+	}
+
+	/**
+	 * Returns the statistics for one expression, consisting of prefix and
+	 * script.
+	 * 
+	 * @param expression
+	 *            An expression such as "jruby:Time.now" or
+	 *            {@link #OTHER_EXPRESSIONS}.
+	 * @return A copy of the statistics for the given expression or null, if
+	 *         no such expression was evaluated.
+	 */
+	public synchronized Statistics getStatisticsByExpression(String expression) {
+
+		Statistics statistics = statisticsByExpression.get(expression);
+
+		return statistics == null ? null : new Statistics(statistics);
+	}
+
+	/**
+	 * Returns the number of fields whose value was obtained in the given way.
+	 * 
+	 * @param path
+	 *            An evaluation path.
+	 * @return The number of fields.
+	 */
+	public synchronized long getEvaluations(EvaluationPath path) {
+
+		return evaluationsByPath[path.ordinal()];
+	}
+
+	public synchronized long getCompiledScriptCacheHits() {
+
+		return getEvaluations(EvaluationPath.COMPILED_SCRIPT_CACHE_HIT);
+	}
+
+	public synchronized long getCompiledScriptCacheMisses() {
+
+		return getEvaluations(EvaluationPath.COMPILED_SCRIPT_CACHE_MISS);
+	}
+
+	public synchronized long getMemoizedValueReads() {
+
+		return memoizedValueReads;
+	}
+
+	/**
+	 * Discards all collected metrics.
+	 */
+	public synchronized void reset() {
+
+		statisticsByPrefix.clear();
+		statisticsByExpression.clear();
+		Arrays.fill(evaluationsByPath, 0);
+		memoizedValueReads = 0;
+	}
+
+	/**
+	 * Returns a summary of all collected metrics, listing the statistics per
+	 * prefix and per expression, the latter ordered by total time descending.
+	 * 
+	 * @return A human-readable report.
+	 */
+	public synchronized String getReport() {
+
+		StringBuilder theValue = new StringBuilder();
+
+		theValue.append("Script evaluation metrics\n");
+		theValue.append("Compiled script cache: ").append(getCompiledScriptCacheHits()).append(" hits, ")
+			.append(getCompiledScriptCacheMisses()).append(" misses\n");
+
+		theValue.append("Evaluation paths:");
+		for (EvaluationPath onePath : EvaluationPath.values()) {
+			theValue.append(" ").append(onePath).append("=").append(evaluationsByPath[onePath.ordinal()]);
+		}
+		theValue.append("\n");
+		theValue.append("Memoized values read: ").append(memoizedValueReads).append("\n");
+
+		theValue.append("By prefix:\n");
+		for (Entry<String, Statistics> oneEntry : statisticsByPrefix.entrySet()) {
+			theValue.append("  ").append(oneEntry.getKey()).append(" ").append(oneEntry.getValue()).append("\n");
+		}
+
+		theValue.append("By expression:\n");
+
+		Map<String, Statistics> remaining = new LinkedHashMap<String, Statistics>(statisticsByExpression);
+
+		while (!remaining.isEmpty()) {
+
+			Entry<String, Statistics> slowest = null;
+
+			for (Entry<String, Statistics> oneEntry : remaining.entrySet()) {
+				if (slowest == null || oneEntry.getValue().getTotalNanos() > slowest.getValue().getTotalNanos()) {
+					slowest = oneEntry;
+				}
+			}
+
+			theValue.append("  ").append(slowest.getKey()).append(" ").append(slowest.getValue()).append("\n");
+			remaining.remove(slowest.getKey());
+		}
+
+		return theValue.toString();
+	}
+
+	@Override
+	public String toString() {
+
+		return getReport();
+	}
+
+	private Statistics getOrCreate(Map<String, Statistics> statistics, String key) {
+
+		Statistics theValue = statistics.get(key);
+
+		if (theValue == null) {
+			theValue = new Statistics();
+			statistics.put(key, theValue);
+		}
+
+		return theValue;
+	}
+
+	/**
+	 * Evaluation statistics for a prefix or an expression.
+	 */
+	public static class Statistics {
+
+		private long count;
+
+		private long totalNanos;
+
+		private long preInvokeNanos;
+
+		private long postInvokeNanos;
+
+		private long maxNanos;
+
+		/**
+		 * Number of evaluations per power-of-two latency bucket; bucket i
+		 * contains evaluations taking less than 2^i nano seconds.
+		 */
+		private final long[] histogram = new long[64];
+
+		Statistics() {
+		}
+
+		Statistics(Statistics other) {
+
+			count = other.count;
+			totalNanos = other.totalNanos;
+			preInvokeNanos = other.preInvokeNanos;
+			postInvokeNanos = other.postInvokeNanos;
+			maxNanos = other.maxNanos;
+			System.arraycopy(other.histogram, 0, histogram, 0, histogram.length);
+		}
+
+		void add(ScriptEvaluationEvent event) {
+
+			long nanos = event.getTotalNanos();
+
+			count++;
+			totalNanos += nanos;
+			preInvokeNanos += event.getPreInvokeNanos();
+			postInvokeNanos += event.getPostInvokeNanos();
+			maxNanos = Math.max(maxNanos, nanos);
+			histogram[Math.min(64 - Long.numberOfLeadingZeros(nanos), histogram.length - 1)]++;
+		}
+
+		public long getCount() {
+
+			return count;
+		}
+
+		/**
+		 * Returns the cumulative time of all evaluations, including handlers.
+		 * 
+		 * @return The time in nano seconds.
+		 */
+		public long getTotalNanos() {
+
+			return totalNanos;
+		}
+
+		/**
+		 * Returns the cumulative time spent in handlers' preInvoke() methods.
+		 * 
+		 * @return The time in nano seconds.
+		 */
+		public long getPreInvokeNanos() {
+
+			return preInvokeNanos;
+		}
+
+		/**
+		 * Returns the cumulative time spent in handlers' postInvoke() methods.
+		 * 
+		 * @return The time in nano seconds.
+		 */
+		public long getPostInvokeNanos() {
+
+			return postInvokeNanos;
+		}
+
+		public long getMaxNanos() {
+
+			return maxNanos;
+		}
+
+		/**
+		 * Returns an approximation of the given latency percentile.
+		 * 
+		 * @param percentile
+		 *            A percentile between 0 and 100, e.g. 99.
+		 * @return An upper bound of the given percentile in nano seconds, at
+		 *         most twice the exact value.
+		 */
+		public long getPercentileNanos(double percentile) {
+
+			Validate.isTrue(percentile >= 0 && percentile <= 100, "The percentile must be between 0 and 100.");
+
+			long threshold = (long) Math.ceil(count * percentile / 100);
+			long cumulated = 0;
+
+			for (int i = 0; i < histogram.length; i++) {
+
+				cumulated += histogram[i];
+
+				if (cumulated >= threshold && cumulated > 0) {
+					return Math.min(i == 0 ? 0 : 1L << i, maxNanos);
+				}
+			}
+
+			return maxNanos;
+		}
+
+		@Override
+		public String toString() {
+
+			return "count=" + count + ", total=" + totalNanos / 1000000 + "ms, pre=" + preInvokeNanos / 1000000
+					+ "ms, post=" + postInvokeNanos / 1000000 + "ms, p50=" + getPercentileNanos(50) / 1000 + "us, p99="
+					+ getPercentileNanos(99) / 1000 + "us, max=" + maxNanos / 1000 + "us";
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * An immutable trie of the prefixes of a list of configurations. A field is
+ * dispatched to the configuration with the longest prefix matching the
+ * field's value, e.g. "groovy:1" will be matched by a configuration with the
+ * prefix "groovy:", even if there is another one with the prefix "g".
+ * 
+ * @author Gunnar Morling
+ */
+public class ScriptPrefixTrie {
+
+	private final List<ScriptableDataSetConfig> configurations;
+
+	private final Node root = new Node();
+
+	/**
+	 * Creates a new ScriptPrefixTrie.
+	 * 
+	 * @param configurations
+	 *            The configurations to dispatch to. No two of them may have the
+	 *            same prefix.
+	 */
+	public ScriptPrefixTrie(List<ScriptableDataSetConfig> configurations) {
+
+		Validate.notNull(configurations);
+
+		this.configurations = Collections.unmodifiableList(new ArrayList<ScriptableDataSetConfig>(configurations));
+
+		for (int i = 0; i < configurations.size(); i++) {
+
+			String prefix = configurations.get(i).getPrefix();
+			Node node = root;
+
+			for (int j = 0; j < prefix.length(); j++) {
+				node = node.getOrAddChild(prefix.charAt(j));
+			}
+
+			Validate.isTrue(node.configIndex == -1, "Prefix \"" + prefix + "\" is used by more than one configuration.");
+
+			node.configIndex = i;
+		}
+	}
+
+	/**
+	 * Returns the configuration with the longest prefix matching the given
+	 * value.
+	 * 
+	 * @param value
+	 *            A field value. May be null.
+	 * @return The matching configuration or null, if no configuration's
+	 *         prefix matches the given value.
+	 */
+	public ScriptableDataSetConfig getLongestMatch(String value) {
+
+		int index = getLongestMatchIndex(value);
+
+		return index == -1 ? null : configurations.get(index);
+	}
+
+	/**
+	 * Returns all configurations of this trie.
+	 * 
+	 * @return An unmodifiable list with this trie's configurations.
+	 */
+	public List<ScriptableDataSetConfig> getConfigurations() {
+
+		return configurations;
+	}
+
+	/**
+	 * Returns the index of the configuration with the longest prefix matching
+	 * the given value.
+	 * 
+	 * @param value
+	 *            A field value. May be null.
+	 * @return The index of the matching configuration within
+	 *         {@link #getConfigurations()} or -1, if no configuration's prefix
+	 *         matches the given value.
+	 */
+	int getLongestMatchIndex(String value) {
+
+		if (value == null) {
+			return -1;
+		}
+
+		Node node = root;
+		int theValue = root.configIndex;
+
+		for (int i = 0; i < value.length(); i++) {
+
+			node = node.getChild(value.charAt(i));
+
+			if (node == null) {
+				break;
+			}
+
+			if (node.configIndex != -1) {
+				theValue = node.configIndex;
+			}
+		}
+
+		return theValue;
+	}
+
+	private static class Node {
+
+		private char[] keys = new char[0];
+
+		private Node[] children = new Node[0];
+
+		private int configIndex = -1;
+
+		Node getChild(char key) {
+
+			int index = Arrays.binarySearch(keys, key);
+
+			return index < 0 ? null : children[index];
+		}
+
+		Node getOrAddChild(char key) {
+
+			int index = Arrays.binarySearch(keys, key);
+
+			if (index >= 0) {
+				return children[index];
+			}
+
+			int insertionPoint = -(index + 1);
+
+			char[] newKeys = new char[keys.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, insertionPoint);
+			System.arraycopy(keys, insertionPoint, newKeys, insertionPoint + 1, keys.length - insertionPoint);
+			newKeys[insertionPoint] = key;
+
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(children, 0, newChildren, 0, insertionPoint);
+			System.arraycopy(children, insertionPoint, newChildren, insertionPoint + 1, children.length - insertionPoint);
+			newChildren[insertionPoint] = new Node();
+
+			keys = newKeys;
+			children = newChildren;
+
+			return newChildren[insertionPoint];
+		}
+	}
+}
@@ -15,14 +15,27 @@
  */
 package de.gmorling.scriptabledataset;
 
+import java.io.Closeable;
+import java.io.File;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.apache.commons.lang.Validate;
 import org.dbunit.dataset.AbstractDataSet;
 import org.dbunit.dataset.DataSetException;
 import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
 import org.dbunit.dataset.ITableIterator;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.stream.StreamingDataSet;
+import org.dbunit.dataset.stream.StreamingIterator;
 
 /**
  * <p>
@@ -67,15 +80,161 @@ import org.dbunit.dataset.ITableIterator;
  * scripts (e.g. to add common imports) and post-process scripts (e.g. to
  * convert results into data types understood by DBUnit).</li>
  * </ul>
+ * <p>
+ * Sequences, UUIDs and time stamps can be generated without any scripting
+ * engine using the built-in languages described at
+ * {@link BuiltInScriptEngineFactory}.
+ * </p>
+ * <p>
+ * If the prefix of one configuration starts with the prefix of another one,
+ * fields are evaluated using the configuration with the longest matching
+ * prefix.
+ * </p>
+ * <p>
+ * Scripts can refer to the other values of their row, the row index and the
+ * table name as described at {@link ScriptableTable}, e.g.
+ * &quot;groovy:row.NUM * 1000 + rowIndex&quot;.
+ * </p>
+ * <p>
+ * The results of deterministic scripts can be kept in a directory across
+ * runs, see {@link #setResultCacheDirectory(File)}.
+ * </p>
+ * <p>
+ * Large tables can be described by a {@link GeneratedTable}, whose rows are
+ * computed from generator scripts upon reading.
+ * </p>
+ * <p>
+ * The scripting engine of a language is loaded once per data set, when the
+ * first script in that language is evaluated, and is shared by all its
+ * tables. The engines can be released by calling {@link #close()}, once the
+ * data set isn't needed any longer. Configurations may request their engine
+ * to be initialized on a background thread as soon as the data set is
+ * created, see
+ * {@link ScriptableDataSetConfig#setEagerInitialization(boolean)}.
+ * </p>
+ * <p>
+ * By default, a script is evaluated each time its field is read. Using
+ * {@link #setMemoizeValues(boolean)} each scripted field can be evaluated only
+ * once per table instead, which is faster and yields stable results for
+ * non-deterministic scripts such as time stamps or random values.
+ * </p>
+ * <p>
+ * If an executor is set using {@link #setPreEvaluationExecutor(Executor)}, all
+ * scripted fields of a table are evaluated in parallel, before the table is
+ * returned by this data set's iterators.
+ * </p>
+ * <p>
+ * If an executor is set using {@link #setPipelineExecutor(Executor)}, this
+ * data set's iterators evaluate the next tables in the background, while the
+ * current table is being processed, e.g. inserted by DBUnit.
+ * </p>
+ * <p>
+ * The forward and the reverse iterators of this data set return the same
+ * scriptable table for a given table of the wrapped data set, so operations
+ * like <code>DatabaseOperation.CLEAN_INSERT</code>, which iterate the data set
+ * twice, neither pre-evaluate a table nor evaluate a memoized field twice.
+ * Only the scriptable table for the table instance last returned by the
+ * wrapped data set is retained per table name, and all of them are discarded
+ * by {@link #close()}.
+ * </p>
+ * <p>
+ * Configurations containing a
+ * {@link de.gmorling.scriptabledataset.handlers.BatchScriptInvocationHandler}
+ * support batch evaluation, which can be enabled using
+ * {@link #setBatchSize(int)}. The scripted fields of a column are then
+ * evaluated with one engine invocation per batch, avoiding the overhead of
+ * invoking the engine for each single field.
+ * </p>
+ * <p>
+ * A scriptable data set and its tables may be read by several threads at
+ * once, e.g. by tests running in parallel. The data set must be configured
+ * before it is used, though.
+ * </p>
+ * <p>
+ * A {@link ScriptEvaluationListener} such as {@link ScriptMetrics} can be
+ * registered to find out which scripts take up the evaluation time.
+ * </p>
+ * <p>
+ * To evaluate scripts of streamed data sets without buffering whole tables,
+ * use a {@link ScriptableDataSetProducer} instead.
+ * </p>
+ * <p>
+ * Large data sets can be inserted into a database with JDBC batches using a
+ * {@link ScriptableDataSetLoader}.
+ * </p>
  * 
  * @author Gunnar Morling
  */
-public class ScriptableDataSet extends AbstractDataSet {
+public class ScriptableDataSet extends AbstractDataSet implements Closeable {
+
+	/**
+	 * The default maximum number of memoized script results per table.
+	 */
+	public static final int DEFAULT_MAX_MEMOIZED_VALUES = 1000000;
+
+	/**
+	 * The default number of rows evaluated by one task during pre-evaluation.
+	 */
+	public static final int DEFAULT_PRE_EVALUATION_CHUNK_SIZE = 1000;
+
+	/**
+	 * The default number of tables evaluated in advance by pipelined
+	 * iterators.
+	 */
+	public static final int DEFAULT_PIPELINE_DEPTH = 2;
+
+	/**
+	 * Runs tasks in the calling thread.
+	 */
+	private static final Executor CALLING_THREAD_EXECUTOR = new Executor() {
+
+		public void execute(Runnable command) {
+
+			command.run();
+		}
+	};
 
 	private IDataSet wrapped;
 
 	private List<ScriptableDataSetConfig> configurations;
 
+	private ScriptPrefixTrie prefixes;
+
+	private ScriptEngineRegistry engines;
+
+	private boolean memoizeValues = false;
+
+	private int maxMemoizedValues = DEFAULT_MAX_MEMOIZED_VALUES;
+
+	private Executor preEvaluationExecutor;
+
+	private int preEvaluationChunkSize = DEFAULT_PRE_EVALUATION_CHUNK_SIZE;
+
+	private ScriptEvaluationListener evaluationListener;
+
+	private int batchSize = 0;
+
+	private boolean coerceValues = false;
+
+	private boolean columnarMemoization = false;
+
+	private FutureTask<Object> initialization;
+
+	private File resultCacheDirectory;
+
+	private PersistentResultCache resultCache;
+
+	private Executor pipelineExecutor;
+
+	private int pipelineDepth = DEFAULT_PIPELINE_DEPTH;
+
+	/**
+	 * The creation of the scriptable tables by upper-case table name. The
+	 * tables are created outside of the map's lock, so several tables can be
+	 * created at once.
+	 */
+	private final Map<String, TableCreation> tables = new HashMap<String, TableCreation>();
+
 	/**
 	 * Creates a new ScriptableDataSet.
 	 * 
@@ -95,12 +254,521 @@ public class ScriptableDataSet extends AbstractDataSet {
 
 		this.wrapped = wrapped;
 		this.configurations = Arrays.asList(configurations);
+		this.prefixes = new ScriptPrefixTrie(this.configurations);
+		this.engines = new ScriptEngineRegistry(this.configurations);
+
+		for (ScriptableDataSetConfig oneConfig : configurations) {
+
+			if (oneConfig.isEagerInitialization()) {
+
+				initialization = new FutureTask<Object>(new EngineInitializer(wrapped, prefixes, engines), null);
+
+				Thread initializer = new Thread(initialization, "scriptable-dataset-initializer");
+				initializer.setDaemon(true);
+				initializer.start();
+
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Waits until the eager initialization of the scripting engines, as
+	 * requested by {@link ScriptableDataSetConfig#setEagerInitialization(boolean)},
+	 * is finished. Returns immediately, if no configuration requests eager
+	 * initialization. Scripts can be evaluated without calling this method,
+	 * though; this only allows to exclude the initialization from time
+	 * measurements.
+	 */
+	public void awaitInitialization() {
+
+		if (initialization == null) {
+			return;
+		}
+
+		try {
+			initialization.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e) {
+			// failures are logged by the initializer
+		}
 	}
 
 	@Override
 	protected ITableIterator createIterator(boolean reversed) throws DataSetException {
 
-		return new ScriptableIterator(reversed ? wrapped.reverseIterator() : wrapped.iterator(), configurations);
+		ITableIterator wrappedIterator = reversed ? wrapped.reverseIterator() : wrapped.iterator();
+
+		// streamed tables become invalid when the wrapped iterator moves on
+		boolean streaming = wrapped instanceof StreamingDataSet || wrappedIterator instanceof StreamingIterator;
+
+		if (pipelineExecutor != null && !streaming) {
+			return new ScriptableIterator(wrappedIterator, this, pipelineExecutor, pipelineDepth);
+		}
+
+		return new ScriptableIterator(wrappedIterator, this);
+	}
+
+	/*
+	 * AbstractDataSet initializes its table name map lazily without any
+	 * synchronization, so the methods using this map are synchronized here.
+	 */
+
+	@Override
+	public synchronized String[] getTableNames() throws DataSetException {
+
+		return super.getTableNames();
+	}
+
+	@Override
+	public synchronized ITableMetaData getTableMetaData(String tableName) throws DataSetException {
+
+		return super.getTableMetaData(tableName);
+	}
+
+	@Override
+	public synchronized ITable getTable(String tableName) throws DataSetException {
+
+		return super.getTable(tableName);
+	}
+
+	@Override
+	public synchronized ITable[] getTables() throws DataSetException {
+
+		return super.getTables();
+	}
+
+	/**
+	 * Returns the scriptable table for a table of the wrapped data set. The
+	 * scriptable table is created upon the first request and returned by all
+	 * following requests for the same table instance, until another instance
+	 * of a table with the same name is requested or this data set is closed.
+	 * Tables of streamed data sets, which are read only once, are not
+	 * retained.
+	 * 
+	 * @param table
+	 *            A table of the wrapped data set.
+	 * @return A scriptable table wrapping the given table.
+	 * @throws DataSetException
+	 *             In case the table couldn't be pre-evaluated.
+	 */
+	ScriptableTable getScriptableTable(final ITable table) throws DataSetException {
+
+		if (wrapped instanceof StreamingDataSet) {
+			return createTable(table);
+		}
+
+		String key = table.getTableMetaData().getTableName().toUpperCase();
+		FutureTask<ScriptableTable> creation;
+		boolean created = false;
+
+		synchronized (tables) {
+
+			TableCreation existing = tables.get(key);
+
+			if (existing != null && existing.table == table) {
+				creation = existing.task;
+			}
+			else {
+
+				creation = new FutureTask<ScriptableTable>(new Callable<ScriptableTable>() {
+
+					public ScriptableTable call() throws DataSetException {
+
+						return createTable(table);
+					}
+				});
+
+				// replaces the table of an earlier iteration, if the wrapped
+				// data set returns new instances upon each iteration
+				tables.put(key, new TableCreation(table, creation));
+				created = true;
+			}
+		}
+
+		if (created) {
+			creation.run();
+		}
+
+		try {
+			return await(creation, table.getTableMetaData().getTableName());
+		}
+		catch (DataSetException e) {
+			removeFailedCreation(key, creation);
+			throw e;
+		}
+		catch (RuntimeException e) {
+			removeFailedCreation(key, creation);
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the scriptable table for a table of the wrapped data set, after
+	 * all its scripted fields have been evaluated and memoized, if memoization
+	 * is enabled. Used by pipelined iterators to evaluate tables in advance.
+	 * 
+	 * @param table
+	 *            A table of the wrapped data set.
+	 * @return A scriptable table wrapping the given table.
+	 * @throws DataSetException
+	 *             In case the table couldn't be evaluated.
+	 */
+	ScriptableTable evaluateTable(ITable table) throws DataSetException {
+
+		ScriptableTable theValue = getScriptableTable(table);
+
+		// otherwise the table was pre-evaluated upon creation or its results
+		// couldn't be kept
+		if (memoizeValues && preEvaluationExecutor == null) {
+			theValue.preEvaluate(CALLING_THREAD_EXECUTOR, preEvaluationChunkSize, maxMemoizedValues);
+		}
+
+		return theValue;
+	}
+
+	/**
+	 * Returns the result of the given task, which creates or evaluates the
+	 * given table, propagating its exceptions.
+	 */
+	static ScriptableTable await(Future<ScriptableTable> task, String tableName) throws DataSetException {
+
+		try {
+			return task.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DataSetException("Evaluation of table " + tableName + " was interrupted.", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof DataSetException) {
+				throw (DataSetException) e.getCause();
+			}
+			throw new DataSetException(e.getCause());
+		}
+	}
+
+	/**
+	 * Removes a failed creation, so the table's creation is attempted again
+	 * upon the next request.
+	 */
+	private void removeFailedCreation(String key, FutureTask<ScriptableTable> creation) {
+
+		synchronized (tables) {
+
+			TableCreation existing = tables.get(key);
+
+			if (existing != null && existing.task == creation) {
+				tables.remove(key);
+			}
+		}
 	}
 
+	private ScriptableTable createTable(ITable table) throws DataSetException {
+
+		ScriptableTable theValue = new ScriptableTable(table, prefixes, engines);
+		theValue.setEvaluationListener(evaluationListener);
+		theValue.setCoerceValues(coerceValues);
+		theValue.setResultCache(resultCache);
+		theValue.setColumnarMemoization(columnarMemoization);
+
+		if (memoizeValues) {
+			theValue.enableMemoization(maxMemoizedValues);
+		}
+
+		if (batchSize > 0) {
+			theValue.batchEvaluate(batchSize, maxMemoizedValues);
+		}
+
+		if (preEvaluationExecutor != null) {
+			theValue.preEvaluate(preEvaluationExecutor, preEvaluationChunkSize, maxMemoizedValues);
+		}
+
+		return theValue;
+	}
+
+	/**
+	 * Returns the trie used to determine the configuration for a field of this
+	 * data set.
+	 * 
+	 * @return The prefix trie of this data set.
+	 */
+	public ScriptPrefixTrie getPrefixTrie() {
+
+		return prefixes;
+	}
+
+	public boolean isMemoizeValues() {
+
+		return memoizeValues;
+	}
+
+	/**
+	 * Whether the results of scripts shall be memoized, causing each scripted
+	 * field of a table to be evaluated only once. Defaults to false.
+	 * 
+	 * @param memoizeValues
+	 *            True, if script results shall be memoized, false otherwise.
+	 */
+	public void setMemoizeValues(boolean memoizeValues) {
+
+		this.memoizeValues = memoizeValues;
+	}
+
+	public int getMaxMemoizedValues() {
+
+		return maxMemoizedValues;
+	}
+
+	/**
+	 * Sets the maximum number of script results to be memoized per table.
+	 * Defaults to {@link #DEFAULT_MAX_MEMOIZED_VALUES}.
+	 * 
+	 * @param maxMemoizedValues
+	 *            The maximum number of memoized results. Must not be negative.
+	 */
+	public void setMaxMemoizedValues(int maxMemoizedValues) {
+
+		Validate.isTrue(maxMemoizedValues >= 0, "The maximum number of memoized values must not be negative.");
+
+		this.maxMemoizedValues = maxMemoizedValues;
+	}
+
+	/**
+	 * Releases the scripting engines and the scriptable tables used by this
+	 * data set, waiting for the engines' eager initialization to finish first.
+	 * New results of deterministic scripts are written to the result cache.
+	 */
+	public void close() {
+
+		awaitInitialization();
+		engines.close();
+
+		synchronized (tables) {
+			tables.clear();
+		}
+
+		if (resultCache != null) {
+			resultCache.close();
+		}
+	}
+
+	public Executor getPreEvaluationExecutor() {
+
+		return preEvaluationExecutor;
+	}
+
+	/**
+	 * Sets an executor, which shall be used to evaluate all scripted fields of
+	 * a table in parallel before the table is returned. Script results will be
+	 * memoized, if an executor is set. Defaults to null, meaning that fields
+	 * are evaluated when read.
+	 * 
+	 * @param preEvaluationExecutor
+	 *            The executor for pre-evaluation, e.g. a thread pool. May be
+	 *            null.
+	 */
+	public void setPreEvaluationExecutor(Executor preEvaluationExecutor) {
+
+		this.preEvaluationExecutor = preEvaluationExecutor;
+	}
+
+	public int getPreEvaluationChunkSize() {
+
+		return preEvaluationChunkSize;
+	}
+
+	/**
+	 * Sets the number of rows evaluated by one task during pre-evaluation.
+	 * Defaults to {@link #DEFAULT_PRE_EVALUATION_CHUNK_SIZE}.
+	 * 
+	 * @param preEvaluationChunkSize
+	 *            The number of rows per task. Must be positive.
+	 */
+	public void setPreEvaluationChunkSize(int preEvaluationChunkSize) {
+
+		Validate.isTrue(preEvaluationChunkSize > 0, "The pre-evaluation chunk size must be positive.");
+
+		this.preEvaluationChunkSize = preEvaluationChunkSize;
+	}
+
+	public Executor getPipelineExecutor() {
+
+		return pipelineExecutor;
+	}
+
+	/**
+	 * Sets an executor, which shall be used by this data set's iterators to
+	 * evaluate the tables following the current one in advance. While the
+	 * caller processes a table, e.g. DBUnit inserting its rows, up to
+	 * {@link #getPipelineDepth()} following tables are created and, if
+	 * memoization is enabled using {@link #setMemoizeValues(boolean)} or
+	 * pre-evaluation is enabled, evaluated. The tables are still returned in
+	 * their original order, and a failing script causes an exception only
+	 * when its table is retrieved.
+	 * <p>
+	 * Evaluating in advance trades memory for time: up to
+	 * {@link #getMaxMemoizedValues()} results are memoized per table, and the
+	 * tables evaluated in advance are held in addition to the current one.
+	 * </p>
+	 * <p>
+	 * Streamed data sets are always iterated without pipelining, as reading
+	 * ahead invalidates their current table. Defaults to null, i.e. tables are
+	 * evaluated when they are read.
+	 * </p>
+	 * 
+	 * @param pipelineExecutor
+	 *            An executor or null, if tables shall not be evaluated in
+	 *            advance.
+	 */
+	public void setPipelineExecutor(Executor pipelineExecutor) {
+
+		this.pipelineExecutor = pipelineExecutor;
+	}
+
+	public int getPipelineDepth() {
+
+		return pipelineDepth;
+	}
+
+	/**
+	 * Sets the maximum number of tables evaluated in advance by pipelined
+	 * iterators, see {@link #setPipelineExecutor(Executor)}. Defaults to
+	 * {@link #DEFAULT_PIPELINE_DEPTH}.
+	 * 
+	 * @param pipelineDepth
+	 *            The number of tables. Must be positive.
+	 */
+	public void setPipelineDepth(int pipelineDepth) {
+
+		Validate.isTrue(pipelineDepth > 0, "The pipeline depth must be positive.");
+
+		this.pipelineDepth = pipelineDepth;
+	}
+
+	public int getBatchSize() {
+
+		return batchSize;
+	}
+
+	/**
+	 * Sets the maximum number of fields to be evaluated with one engine
+	 * invocation. Fields of configurations with a batch handler will then be
+	 * evaluated in batches before a table is returned, and their results will
+	 * be memoized. Defaults to 0, meaning that batch evaluation is disabled.
+	 * 
+	 * @param batchSize
+	 *            The maximum number of fields per batch. Must not be negative.
+	 */
+	public void setBatchSize(int batchSize) {
+
+		Validate.isTrue(batchSize >= 0, "The batch size must not be negative.");
+
+		this.batchSize = batchSize;
+	}
+
+	public boolean isCoerceValues() {
+
+		return coerceValues;
+	}
+
+	/**
+	 * Whether script results shall be converted into the Java type of their
+	 * column's data type, as declared by the meta data of the wrapped tables.
+	 * Defaults to false. See {@link ScriptableTable#setCoerceValues(boolean)}
+	 * for details.
+	 * 
+	 * @param coerceValues
+	 *            True, if script results shall be converted, false otherwise.
+	 */
+	public void setCoerceValues(boolean coerceValues) {
+
+		this.coerceValues = coerceValues;
+	}
+
+	public boolean isColumnarMemoization() {
+
+		return columnarMemoization;
+	}
+
+	/**
+	 * Whether memoized script results shall be kept in type-specialized
+	 * columns, partly off-heap, rather than as objects. This is recommended
+	 * when memoizing the results of tables with millions of rows. Defaults to
+	 * false. See {@link ScriptableTable#setColumnarMemoization(boolean)} for
+	 * details.
+	 * 
+	 * @param columnarMemoization
+	 *            True, if memoized results shall be kept in columns, false
+	 *            otherwise.
+	 */
+	public void setColumnarMemoization(boolean columnarMemoization) {
+
+		this.columnarMemoization = columnarMemoization;
+	}
+
+	public File getResultCacheDirectory() {
+
+		return resultCacheDirectory;
+	}
+
+	/**
+	 * Sets a directory, in which the results of deterministic scripts shall
+	 * be kept across runs, see
+	 * {@link ScriptableDataSetConfig#setDeterministic(boolean)}. The cached
+	 * results are read when this method is called, new results are written
+	 * when this data set is closed. If all scripted fields read are found in
+	 * the cache, no scripting engine is loaded at all. Defaults to null,
+	 * meaning that results aren't cached persistently.
+	 * 
+	 * @param resultCacheDirectory
+	 *            The cache directory. Will be created if it doesn't exist. May
+	 *            be null.
+	 */
+	public void setResultCacheDirectory(File resultCacheDirectory) {
+
+		this.resultCacheDirectory = resultCacheDirectory;
+		this.resultCache = resultCacheDirectory != null ? new PersistentResultCache(resultCacheDirectory) : null;
+	}
+
+	public ScriptEvaluationListener getEvaluationListener() {
+
+		return evaluationListener;
+	}
+
+	/**
+	 * Registers a listener to be notified about each script evaluation, e.g.
+	 * a {@link ScriptMetrics} instance collecting evaluation metrics for this
+	 * data set. Defaults to null, meaning that evaluations aren't measured.
+	 * 
+	 * @param evaluationListener
+	 *            The listener. May be null.
+	 */
+	public void setEvaluationListener(ScriptEvaluationListener evaluationListener) {
+
+		this.evaluationListener = evaluationListener;
+	}
+
+	/**
+	 * The creation of the scriptable table for one instance of a wrapped
+	 * table.
+	 */
+	private static class TableCreation {
+
+		private final ITable table;
+
+		private final FutureTask<ScriptableTable> task;
+
+		TableCreation(ITable table, FutureTask<ScriptableTable> task) {
+
+			this.table = table;
+			this.task = task;
+		}
+	}
 }
@@ -16,7 +16,9 @@
 package de.gmorling.scriptabledataset;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.Validate;
 import org.apache.commons.lang.builder.ReflectionToStringBuilder;
@@ -31,12 +33,33 @@ import de.gmorling.scriptabledataset.handlers.ScriptInvocationHandler;
  */
 public class ScriptableDataSetConfig {
 
+	/**
+	 * The default number of compiled scripts kept per configuration.
+	 */
+	public static final int DEFAULT_COMPILED_SCRIPT_CACHE_SIZE = 256;
+
 	private final String prefix;
 
 	private final String languageName;
 
 	private final List<ScriptInvocationHandler> handlers = new ArrayList<ScriptInvocationHandler>();
 
+	private int compiledScriptCacheSize = DEFAULT_COMPILED_SCRIPT_CACHE_SIZE;
+
+	private boolean eagerInitialization = false;
+
+	private final List<String> warmUpScripts = new ArrayList<String>();
+
+	private boolean precompileScripts = false;
+
+	private boolean deterministic = false;
+
+	private boolean interpretSimpleExpressions = false;
+
+	private final List<String> setupScripts = new ArrayList<String>();
+
+	private final Map<String, String> tableVariables = new LinkedHashMap<String, String>();
+
 	/**
 	 * Creates a new ScriptableDataSetConfig.
 	 * 
@@ -96,6 +119,200 @@ public class ScriptableDataSetConfig {
 		return handlers;
 	}
 
+	public int getCompiledScriptCacheSize() {
+
+		return compiledScriptCacheSize;
+	}
+
+	/**
+	 * Sets the maximum number of compiled scripts to be kept for this
+	 * configuration. Scripts are compiled only once, if the scripting engine
+	 * implements <code>javax.script.Compilable</code>; when the cache is
+	 * full, the least recently used script is evicted.
+	 * 
+	 * @param compiledScriptCacheSize
+	 *            The maximum number of compiled scripts. 0 disables the
+	 *            cache, causing each script to be evaluated directly. Must
+	 *            not be negative.
+	 */
+	public void setCompiledScriptCacheSize(int compiledScriptCacheSize) {
+
+		Validate.isTrue(compiledScriptCacheSize >= 0, "The compiled script cache size must not be negative.");
+
+		this.compiledScriptCacheSize = compiledScriptCacheSize;
+	}
+
+	public boolean isEagerInitialization() {
+
+		return eagerInitialization;
+	}
+
+	/**
+	 * Whether the engine for this configuration shall be initialized on a
+	 * background thread as soon as a {@link ScriptableDataSet} using this
+	 * configuration is created, instead of upon the first evaluation. The
+	 * warm-up scripts will be evaluated and the data set's scripts will be
+	 * compiled, if requested, during initialization. Defaults to false.
+	 * 
+	 * @param eagerInitialization
+	 *            True, if the engine shall be initialized eagerly, false
+	 *            otherwise.
+	 */
+	public void setEagerInitialization(boolean eagerInitialization) {
+
+		this.eagerInitialization = eagerInitialization;
+	}
+
+	public List<String> getWarmUpScripts() {
+
+		return warmUpScripts;
+	}
+
+	/**
+	 * Sets scripts to be evaluated during eager initialization, e.g. to load
+	 * libraries required by the data set's scripts. The scripts are processed
+	 * by the handlers of this configuration and are given without prefix.
+	 * 
+	 * @param warmUpScripts
+	 *            The warm-up scripts. May be null.
+	 */
+	public void setWarmUpScripts(List<String> warmUpScripts) {
+
+		this.warmUpScripts.clear();
+
+		if (warmUpScripts != null) {
+			this.warmUpScripts.addAll(warmUpScripts);
+		}
+	}
+
+	public boolean isPrecompileScripts() {
+
+		return precompileScripts;
+	}
+
+	/**
+	 * Whether all distinct scripts of this configuration contained in the data
+	 * set shall be compiled during eager initialization. At most as many
+	 * scripts as fit into the compiled script cache are compiled. Scripts of
+	 * streamed data sets can't be compiled in advance. Defaults to false.
+	 * 
+	 * @param precompileScripts
+	 *            True, if the scripts shall be compiled in advance, false
+	 *            otherwise.
+	 */
+	public void setPrecompileScripts(boolean precompileScripts) {
+
+		this.precompileScripts = precompileScripts;
+	}
+
+	public boolean isDeterministic() {
+
+		return deterministic;
+	}
+
+	/**
+	 * Whether all scripts of this configuration are deterministic, i.e. yield
+	 * the same result upon each evaluation. The results of deterministic
+	 * scripts may be kept in a persistent cache, see
+	 * {@link ScriptableDataSet#setResultCacheDirectory(java.io.File)}. A
+	 * separate configuration with another prefix can be used for
+	 * deterministic scripts of a language. Defaults to false.
+	 * 
+	 * @param deterministic
+	 *            True, if the scripts of this configuration are
+	 *            deterministic, false otherwise.
+	 */
+	public void setDeterministic(boolean deterministic) {
+
+		this.deterministic = deterministic;
+	}
+
+	public boolean isInterpretSimpleExpressions() {
+
+		return interpretSimpleExpressions;
+	}
+
+	/**
+	 * Whether trivial scripts such as &quot;42*1024&quot; or
+	 * &quot;'abc' * 100&quot; shall be evaluated without invoking the
+	 * scripting engine. Scripts consisting only of literals, parentheses and
+	 * basic arithmetic are then interpreted directly, yielding the same results
+	 * as the engine; all other scripts are evaluated by the engine as usual.
+	 * Handlers may rewrite scripts, so each script is passed to the preInvoke
+	 * method of all handlers, before it is checked whether it is simple. Only
+	 * handlers implementing
+	 * {@link de.gmorling.scriptabledataset.handlers.LiteralPreservingInvocationHandler},
+	 * e.g. handlers adding imports, are skipped for simple expressions. The
+	 * results of interpreted scripts are passed to the postInvoke method of
+	 * all handlers. This is supported for Groovy, JRuby and JavaScript and has
+	 * no effect for other languages or for batch evaluation. Defaults to
+	 * false.
+	 * 
+	 * @param interpretSimpleExpressions
+	 *            True, if simple expressions shall be evaluated without the
+	 *            engine, false otherwise.
+	 */
+	public void setInterpretSimpleExpressions(boolean interpretSimpleExpressions) {
+
+		this.interpretSimpleExpressions = interpretSimpleExpressions;
+	}
+
+	public List<String> getSetupScripts() {
+
+		return setupScripts;
+	}
+
+	/**
+	 * Sets scripts to be evaluated once by each engine of this configuration
+	 * before it evaluates any field. Variables and functions defined by these
+	 * scripts in the engine's global scope are visible to all fields of the
+	 * data set, e.g. a lookup table loaded from a file. They live until the
+	 * data set is closed. Whether a variable is defined in the global scope
+	 * depends on the language, e.g. "names = [...]" in Groovy, "var names =
+	 * [...]" in JavaScript or "$names = [...]" in Ruby. The scripts are
+	 * processed by the handlers of this configuration and are given without
+	 * prefix.
+	 * 
+	 * @param setupScripts
+	 *            The setup scripts. May be null.
+	 */
+	public void setSetupScripts(List<String> setupScripts) {
+
+		this.setupScripts.clear();
+
+		if (setupScripts != null) {
+			this.setupScripts.addAll(setupScripts);
+		}
+	}
+
+	public Map<String, String> getTableVariables() {
+
+		return tableVariables;
+	}
+
+	/**
+	 * Sets variables to be computed once per table. Each script is evaluated
+	 * before the first field of this configuration in a table is evaluated,
+	 * and its result is visible as binding with the given name to all fields
+	 * of the table, e.g. a sequence generator. Each table gets its own values.
+	 * The scripts may refer to the binding
+	 * {@link ScriptableTable#TABLE_NAME_BINDING} and to the variables defined
+	 * before them. They are processed by the handlers of this configuration
+	 * and are given without prefix.
+	 * 
+	 * @param tableVariables
+	 *            The scripts computing the variables by variable name, in the
+	 *            order of evaluation. May be null.
+	 */
+	public void setTableVariables(Map<String, String> tableVariables) {
+
+		this.tableVariables.clear();
+
+		if (tableVariables != null) {
+			this.tableVariables.putAll(tableVariables);
+		}
+	}
+
 	@Override
 	public String toString() {
 
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.util.Arrays;
+
+import javax.script.Bindings;
+import javax.script.SimpleBindings;
+
+import org.apache.commons.lang.Validate;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.stream.IDataSetConsumer;
+
+/**
+ * An <code>IDataSetConsumer</code>, that evaluates the scripts contained in
+ * the rows it receives and passes the rows with the script results on to
+ * another consumer. Rows are processed one at a time, so the memory required
+ * doesn't depend on the size of the tables.
+ * <p>
+ * Scripts can access the row being evaluated using the same bindings as
+ * within a {@link ScriptableTable}.
+ * </p>
+ * 
+ * @author Gunnar Morling
+ */
+public class ScriptableDataSetConsumer implements IDataSetConsumer {
+
+	private final IDataSetConsumer wrapped;
+
+	private final ScriptPrefixTrie prefixes;
+
+	private final ScriptEngineRegistry engines;
+
+	private ITableMetaData metaData;
+
+	private Column[] columns;
+
+	private int rowIndex;
+
+	private TableVariables tableVariables;
+
+	/**
+	 * Creates a new ScriptableDataSetConsumer.
+	 * 
+	 * @param wrapped
+	 *            The consumer to pass the rows with evaluated scripts to. May
+	 *            not be null.
+	 * @param configurations
+	 *            At least one scriptable data set configuration.
+	 */
+	public ScriptableDataSetConsumer(IDataSetConsumer wrapped, ScriptableDataSetConfig... configurations) {
+
+		Validate.notNull(wrapped);
+
+		Validate.notNull(configurations);
+		Validate.noNullElements(configurations);
+		Validate.notEmpty(configurations);
+
+		this.wrapped = wrapped;
+		this.prefixes = new ScriptPrefixTrie(Arrays.asList(configurations));
+		this.engines = new ScriptEngineRegistry(prefixes.getConfigurations());
+	}
+
+	public void startDataSet() throws DataSetException {
+
+		wrapped.startDataSet();
+	}
+
+	/**
+	 * Passes the end of the data set on and releases the scripting engines.
+	 */
+	public void endDataSet() throws DataSetException {
+
+		try {
+			wrapped.endDataSet();
+		}
+		finally {
+			engines.close();
+		}
+	}
+
+	public void startTable(ITableMetaData metaData) throws DataSetException {
+
+		this.metaData = metaData;
+		this.columns = metaData.getColumns();
+		this.rowIndex = 0;
+		this.tableVariables = new TableVariables(metaData.getTableName());
+
+		wrapped.startTable(metaData);
+	}
+
+	public void endTable() throws DataSetException {
+
+		wrapped.endTable();
+	}
+
+	/**
+	 * Evaluates all scripts in the given row and passes the results on. The
+	 * given array isn't modified.
+	 */
+	public void row(Object[] values) throws DataSetException {
+
+		RowEvaluation evaluation = new RowEvaluation(values, rowIndex++);
+
+		for (int i = 0; i < values.length; i++) {
+			evaluation.getValue(i);
+		}
+
+		wrapped.row(evaluation.getResults());
+	}
+
+	/**
+	 * The evaluation of one row. A field is evaluated when the row is passed
+	 * on or when a script of another field refers to it, whichever comes
+	 * first.
+	 */
+	private class RowEvaluation {
+
+		private final Object[] values;
+
+		private final int row;
+
+		/**
+		 * A copy of the values with the scripts evaluated so far. Null as long
+		 * as no script has been evaluated.
+		 */
+		private Object[] results;
+
+		private boolean[] evaluated;
+
+		RowEvaluation(Object[] values, int row) {
+
+			this.values = values;
+			this.row = row;
+		}
+
+		Object[] getResults() {
+
+			return results != null ? results : values;
+		}
+
+		Object getValue(int column) throws DataSetException {
+
+			if (evaluated != null && evaluated[column]) {
+				return results[column];
+			}
+
+			// only strings can be processed
+			if (!(values[column] instanceof String)) {
+				return values[column];
+			}
+
+			String script = (String) values[column];
+			ScriptableDataSetConfig config = prefixes.getLongestMatch(script);
+
+			if (config == null) {
+				return values[column];
+			}
+
+			if (results == null) {
+				results = values.clone();
+				evaluated = new boolean[values.length];
+			}
+
+			results[column] = evaluate(config, script.substring(config.getPrefix().length()), column);
+			evaluated[column] = true;
+
+			return results[column];
+		}
+
+		private Object evaluate(ScriptableDataSetConfig config, String script, int column) {
+
+			ScriptEvaluator evaluator = engines.acquireEvaluator(config);
+
+			try {
+				return evaluator.evaluate(script, null, createBindings(evaluator, column));
+			}
+			finally {
+				engines.releaseEvaluator(evaluator);
+			}
+		}
+
+		private Bindings createBindings(ScriptEvaluator evaluator, int column) {
+
+			Bindings theValue = new SimpleBindings();
+
+			theValue.putAll(tableVariables.get(evaluator));
+
+			theValue.put(ScriptableTable.ROW_BINDING, new RowValues(columns, columns[column].getColumnName()) {
+
+				@Override
+				protected Object getValue(String column) throws DataSetException {
+					return RowEvaluation.this.getValue(metaData.getColumnIndex(column));
+				}
+			});
+			theValue.put(ScriptableTable.ROW_INDEX_BINDING, row);
+			theValue.put(ScriptableTable.TABLE_NAME_BINDING, metaData.getTableName());
+			theValue.put(ScriptableTable.COLUMN_NAME_BINDING, columns[column].getColumnName());
+
+			return theValue;
+		}
+	}
+}
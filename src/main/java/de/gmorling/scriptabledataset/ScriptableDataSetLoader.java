@@ -0,0 +1,443 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+import org.dbunit.DatabaseUnitException;
+import org.dbunit.database.DatabaseConfig;
+import org.dbunit.database.DatabaseConnection;
+import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.dbunit.dataset.ITableMetaData;
+import org.dbunit.dataset.datatype.DataType;
+import org.dbunit.util.QualifiedTableName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Inserts the rows of a {@link ScriptableDataSet} into a database using JDBC
+ * batches, as an alternative to <code>DatabaseOperation.INSERT</code> for
+ * large data sets such as performance test fixtures:
+ * </p>
+ * 
+ * <pre>
+ * ScriptableDataSetLoader loader = new ScriptableDataSetLoader(connection);
+ * loader.setBatchSize(1000);
+ * loader.setCommitInterval(100000);
+ * loader.load(scriptableDS);
+ * </pre>
+ * <p>
+ * The tables are inserted in the order of the data set's iterator, so
+ * referenced tables must precede the tables referring to them, just as with
+ * DBUnit's operations. The column types are taken from the database's meta
+ * data and values are converted as by DBUnit. Fields without a value are
+ * inserted as null.
+ * </p>
+ * <p>
+ * If an executor is set using {@link #setExecutor(Executor)}, the rows of
+ * each table are evaluated by a task of that executor, while the rows of the
+ * preceding tables are being inserted. All statements are still executed by
+ * the calling thread using the given connection, in the order of the tables.
+ * Only a few batches per table are evaluated in advance, so the tables don't
+ * need to fit into memory.
+ * </p>
+ * <p>
+ * A loader may be used for several data sets, but not by several threads at
+ * once.
+ * </p>
+ * 
+ * @author Gunnar Morling
+ */
+public class ScriptableDataSetLoader {
+
+	/**
+	 * The default number of rows inserted with one JDBC batch.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	/**
+	 * The number of batches per table, which are evaluated in advance when
+	 * using an executor.
+	 */
+	private static final int BATCHES_IN_ADVANCE = 4;
+
+	private final Logger logger = LoggerFactory.getLogger(ScriptableDataSetLoader.class);
+
+	private final IDatabaseConnection connection;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	private int commitInterval = 0;
+
+	private Executor executor;
+
+	/**
+	 * Creates a new ScriptableDataSetLoader.
+	 * 
+	 * @param connection
+	 *            The connection to insert the rows with. May not be null.
+	 * @throws DatabaseUnitException
+	 *             In case the connection couldn't be wrapped by DBUnit.
+	 */
+	public ScriptableDataSetLoader(Connection connection) throws DatabaseUnitException {
+
+		this(new DatabaseConnection(connection));
+	}
+
+	/**
+	 * Creates a new ScriptableDataSetLoader using the schema and configuration
+	 * of the given DBUnit connection.
+	 * 
+	 * @param connection
+	 *            The connection to insert the rows with. May not be null.
+	 */
+	public ScriptableDataSetLoader(IDatabaseConnection connection) {
+
+		Validate.notNull(connection);
+
+		this.connection = connection;
+	}
+
+	/**
+	 * Inserts all rows of the given data set.
+	 * 
+	 * @param dataSet
+	 *            The data set to insert. May not be null.
+	 * @return The number of inserted rows.
+	 * @throws DataSetException
+	 *             In case a table of the data set couldn't be read or doesn't
+	 *             exist in the database.
+	 * @throws SQLException
+	 *             In case the rows couldn't be inserted.
+	 */
+	public long load(ScriptableDataSet dataSet) throws DataSetException, SQLException {
+
+		Validate.notNull(dataSet);
+
+		List<ITable> tables = new ArrayList<ITable>();
+		ITableIterator iterator = dataSet.iterator();
+
+		while (iterator.next()) {
+			tables.add(iterator.getTable());
+		}
+
+		List<RowProducer> producers = new ArrayList<RowProducer>(tables.size());
+
+		if (executor != null) {
+
+			for (ITable oneTable : tables) {
+
+				RowProducer producer = new RowProducer(oneTable);
+				producers.add(producer);
+				executor.execute(producer.task);
+			}
+		}
+
+		Connection jdbcConnection = connection.getConnection();
+		boolean autoCommit = jdbcConnection.getAutoCommit();
+
+		if (commitInterval > 0 && autoCommit) {
+			jdbcConnection.setAutoCommit(false);
+		}
+
+		boolean loaded = false;
+
+		try {
+
+			IDataSet databaseDataSet = connection.createDataSet();
+			long theValue = 0;
+			long uncommittedRows = 0;
+
+			for (int i = 0; i < tables.size(); i++) {
+
+				ITable table = tables.get(i);
+				RowProducer producer = executor != null ? producers.get(i) : null;
+
+				ITableMetaData databaseMetaData = databaseDataSet.getTableMetaData(table.getTableMetaData().getTableName());
+				Column[] columns = getDatabaseColumns(table.getTableMetaData(), databaseMetaData);
+
+				PreparedStatement statement = jdbcConnection.prepareStatement(getInsertStatement(databaseMetaData.getTableName(), columns));
+
+				try {
+
+					int rowCount = table.getRowCount();
+
+					for (int row = 0; row < rowCount;) {
+
+						Object[][] rows = producer != null ? producer.take() : evaluate(table, row);
+
+						for (Object[] oneRow : rows) {
+
+							for (int j = 0; j < columns.length; j++) {
+
+								Object value = oneRow[j] != ITable.NO_VALUE ? oneRow[j] : null;
+								columns[j].getDataType().setSqlValue(value, j + 1, statement);
+							}
+
+							statement.addBatch();
+						}
+
+						statement.executeBatch();
+
+						row += rows.length;
+						theValue += rows.length;
+						uncommittedRows += rows.length;
+
+						if (commitInterval > 0 && uncommittedRows >= commitInterval) {
+							jdbcConnection.commit();
+							uncommittedRows = 0;
+						}
+					}
+				}
+				finally {
+					statement.close();
+				}
+			}
+
+			if (commitInterval > 0) {
+				jdbcConnection.commit();
+			}
+
+			loaded = true;
+
+			return theValue;
+		}
+		finally {
+
+			for (RowProducer oneProducer : producers) {
+				oneProducer.task.cancel(true);
+			}
+
+			// restoring auto-commit would commit the rows of a failed load
+			if (commitInterval > 0 && !loaded) {
+				try {
+					jdbcConnection.rollback();
+				}
+				catch (SQLException e) {
+					logger.warn("Rolling back failed load failed.", e);
+				}
+			}
+
+			if (commitInterval > 0 && autoCommit) {
+				jdbcConnection.setAutoCommit(true);
+			}
+		}
+	}
+
+	public int getBatchSize() {
+
+		return batchSize;
+	}
+
+	/**
+	 * Sets the number of rows inserted with one JDBC batch. Defaults to
+	 * {@link #DEFAULT_BATCH_SIZE}.
+	 * 
+	 * @param batchSize
+	 *            The batch size. Must be greater than zero.
+	 */
+	public void setBatchSize(int batchSize) {
+
+		Validate.isTrue(batchSize > 0, "The batch size must be greater than zero.");
+
+		this.batchSize = batchSize;
+	}
+
+	public int getCommitInterval() {
+
+		return commitInterval;
+	}
+
+	/**
+	 * Sets the number of rows after which the inserted rows are committed.
+	 * Commits happen after complete batches, so the interval should be a
+	 * multiple of the batch size. If set, the loader also commits the last
+	 * rows and disables auto-commit during loading. If loading fails, the rows
+	 * inserted since the last commit are rolled back. Defaults to 0, i.e. the
+	 * transaction is left to the caller.
+	 * 
+	 * @param commitInterval
+	 *            The commit interval or 0 to not commit at all.
+	 */
+	public void setCommitInterval(int commitInterval) {
+
+		Validate.isTrue(commitInterval >= 0, "The commit interval must not be negative.");
+
+		this.commitInterval = commitInterval;
+	}
+
+	public Executor getExecutor() {
+
+		return executor;
+	}
+
+	/**
+	 * Sets an executor, which shall be used to evaluate the rows of the
+	 * tables in parallel to their insertion. The executor should provide
+	 * at least one thread per table, which shall be evaluated in parallel.
+	 * 
+	 * @param executor
+	 *            An executor or null, if all rows shall be evaluated by the
+	 *            thread loading the data set.
+	 */
+	public void setExecutor(Executor executor) {
+
+		this.executor = executor;
+	}
+
+	/**
+	 * Returns the database columns for the columns of the given table, which
+	 * carry the data types used to set the statement's parameters.
+	 */
+	private Column[] getDatabaseColumns(ITableMetaData metaData, ITableMetaData databaseMetaData) throws DataSetException {
+
+		Column[] columns = metaData.getColumns();
+		Column[] databaseColumns = databaseMetaData.getColumns();
+		Column[] theValue = new Column[columns.length];
+
+		for (int i = 0; i < columns.length; i++) {
+			theValue[i] = databaseColumns[databaseMetaData.getColumnIndex(columns[i].getColumnName())];
+		}
+
+		return theValue;
+	}
+
+	private String getInsertStatement(String tableName, Column[] columns) {
+
+		String escapePattern = (String) connection.getConfig().getProperty(DatabaseConfig.PROPERTY_ESCAPE_PATTERN);
+
+		StringBuilder theValue = new StringBuilder("insert into ");
+		theValue.append(new QualifiedTableName(tableName, connection.getSchema(), escapePattern).getQualifiedName());
+		theValue.append(" (");
+
+		for (int i = 0; i < columns.length; i++) {
+			theValue.append(i == 0 ? "" : ", ");
+			theValue.append(new QualifiedTableName(columns[i].getColumnName(), null, escapePattern).getQualifiedName());
+		}
+
+		theValue.append(") values (");
+
+		for (int i = 0; i < columns.length; i++) {
+			theValue.append(i == 0 ? "?" : ", ?");
+		}
+
+		return theValue.append(")").toString();
+	}
+
+	/**
+	 * Evaluates the rows of one batch.
+	 */
+	private Object[][] evaluate(ITable table, int firstRow) throws DataSetException {
+
+		Column[] columns = table.getTableMetaData().getColumns();
+		Object[][] theValue = new Object[Math.min(batchSize, table.getRowCount() - firstRow)][columns.length];
+
+		for (int i = 0; i < theValue.length; i++) {
+			for (int j = 0; j < columns.length; j++) {
+				theValue[i][j] = table.getValue(firstRow + i, columns[j].getColumnName());
+			}
+		}
+
+		return theValue;
+	}
+
+	/**
+	 * Evaluates the rows of one table in batches using the loader's executor.
+	 */
+	private class RowProducer implements Runnable {
+
+		private final ITable table;
+
+		private final BlockingQueue<Object[][]> batches = new ArrayBlockingQueue<Object[][]>(BATCHES_IN_ADVANCE);
+
+		private final FutureTask<Object> task = new FutureTask<Object>(this, null);
+
+		RowProducer(ITable table) {
+
+			this.table = table;
+		}
+
+		public void run() {
+
+			try {
+				for (int row = 0; row < table.getRowCount(); row += batchSize) {
+					batches.put(evaluate(table, row));
+				}
+			}
+			catch (DataSetException e) {
+				throw new RuntimeException(e);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Returns the next batch of rows, waiting for it to be evaluated.
+		 */
+		Object[][] take() throws DataSetException {
+
+			while (true) {
+
+				Object[][] theValue;
+
+				try {
+					theValue = batches.poll(100, TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new DataSetException("Interrupted while waiting for the rows of table " + table.getTableMetaData().getTableName() + ".", e);
+				}
+
+				if (theValue != null) {
+					return theValue;
+				}
+
+				if (task.isDone() && batches.isEmpty()) {
+
+					try {
+						task.get();
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					catch (ExecutionException e) {
+						throw new DataSetException(e.getCause());
+					}
+
+					throw new DataSetException("Table " + table.getTableMetaData().getTableName() + " yielded fewer rows than expected.");
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import org.apache.commons.lang.Validate;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.stream.IDataSetConsumer;
+import org.dbunit.dataset.stream.IDataSetProducer;
+
+/**
+ * <p>
+ * An <code>IDataSetProducer</code>, that evaluates the scripts contained in
+ * the rows of another producer. This allows to use script expressions with
+ * DBUnit's streamed data sets, without buffering whole tables in memory:
+ * </p>
+ * 
+ * <pre>
+ * IDataSetProducer producer = new ScriptableDataSetProducer(
+ * 		new FlatXmlProducer(new InputSource(...)),
+ * 		new ScriptableDataSetConfig(&quot;jruby&quot;, &quot;jruby:&quot;));
+ * 
+ * DatabaseOperation.INSERT.execute(connection, new StreamingDataSet(producer));
+ * </pre>
+ * 
+ * @author Gunnar Morling
+ */
+public class ScriptableDataSetProducer implements IDataSetProducer {
+
+	private final IDataSetProducer wrapped;
+
+	private final ScriptableDataSetConfig[] configurations;
+
+	/**
+	 * Creates a new ScriptableDataSetProducer.
+	 * 
+	 * @param wrapped
+	 *            The producer whose rows shall be processed. May not be null.
+	 * @param configurations
+	 *            At least one scriptable data set configuration.
+	 */
+	public ScriptableDataSetProducer(IDataSetProducer wrapped, ScriptableDataSetConfig... configurations) {
+
+		Validate.notNull(wrapped);
+
+		Validate.notNull(configurations);
+		Validate.noNullElements(configurations);
+		Validate.notEmpty(configurations);
+
+		this.wrapped = wrapped;
+		this.configurations = configurations;
+	}
+
+	public void setConsumer(IDataSetConsumer consumer) throws DataSetException {
+
+		wrapped.setConsumer(new ScriptableDataSetConsumer(consumer, configurations));
+	}
+
+	public void produce() throws DataSetException {
+
+		wrapped.produce();
+	}
+}
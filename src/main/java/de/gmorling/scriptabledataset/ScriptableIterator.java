@@ -15,38 +15,247 @@
  */
 package de.gmorling.scriptabledataset;
 
+import java.io.Closeable;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 import org.dbunit.dataset.DataSetException;
 import org.dbunit.dataset.ITable;
 import org.dbunit.dataset.ITableIterator;
 import org.dbunit.dataset.ITableMetaData;
 
-public class ScriptableIterator implements ITableIterator {
+/**
+ * ITableIterator implementation, that returns scriptable tables for the
+ * tables of a wrapped iterator. An iterator created with its own scripting
+ * engines must be closed once its tables aren't needed any more.
+ * 
+ * @author Gunnar Morling
+ */
+public class ScriptableIterator implements ITableIterator, Closeable {
 
 	private ITableIterator wrapped;
 
 	private List<ScriptableDataSetConfig> configurations;
 
+	private ScriptEngineRegistry engines;
+
+	/**
+	 * The registry created by this iterator for its own use or null, if the
+	 * engines are provided by the creator of this iterator.
+	 */
+	private ScriptEngineRegistry ownEngines;
+
+	private ScriptableDataSet dataSet;
+
+	private Executor pipelineExecutor;
+
+	private int pipelineDepth;
+
+	/**
+	 * The tables following the current one, which are evaluated in advance
+	 * when pipelining.
+	 */
+	private final LinkedList<PipelinedTable> pipeline = new LinkedList<PipelinedTable>();
+
+	private PipelinedTable current;
+
+	private boolean wrappedExhausted;
+
+	/**
+	 * Creates a new ScriptableIterator, which uses its own scripting engines
+	 * for all tables returned. These are released by {@link #close()}, which
+	 * must be called once the tables aren't needed any more.
+	 * 
+	 * @param wrapped
+	 *            The iterator to be wrapped. May not be null.
+	 * @param configurations
+	 *            An list with configurations
+	 */
 	public ScriptableIterator(ITableIterator wrapped, List<ScriptableDataSetConfig> configurations) {
 
+		this(wrapped, configurations, new ScriptEngineRegistry(configurations));
+
+		this.ownEngines = engines;
+	}
+
+	public ScriptableIterator(ITableIterator wrapped, List<ScriptableDataSetConfig> configurations, ScriptEngineRegistry engines) {
+
 		this.wrapped = wrapped;
 		this.configurations = configurations;
+		this.engines = engines;
+	}
+
+	ScriptableIterator(ITableIterator wrapped, ScriptableDataSet dataSet) {
+
+		this.wrapped = wrapped;
+		this.dataSet = dataSet;
+	}
+
+	/**
+	 * Creates an iterator, which evaluates up to the given number of tables
+	 * following the current one in advance, using the given executor.
+	 */
+	ScriptableIterator(ITableIterator wrapped, ScriptableDataSet dataSet, Executor pipelineExecutor, int pipelineDepth) {
+
+		this(wrapped, dataSet);
+
+		this.pipelineExecutor = pipelineExecutor;
+		this.pipelineDepth = pipelineDepth;
 	}
 
 	public ITable getTable() throws DataSetException {
 
-		return new ScriptableTable(wrapped.getTable(), configurations);
+		if (pipelineExecutor != null) {
+			return getCurrent().getTable();
+		}
+
+		if (dataSet != null) {
+			return dataSet.getScriptableTable(wrapped.getTable());
+		}
+
+		return new ScriptableTable(wrapped.getTable(), configurations, engines);
 	}
 
 	public ITableMetaData getTableMetaData() throws DataSetException {
 
+		if (pipelineExecutor != null) {
+			return getCurrent().getTableMetaData();
+		}
+
 		return wrapped.getTableMetaData();
 	}
 
 	public boolean next() throws DataSetException {
 
-		return wrapped.next();
+		if (pipelineExecutor == null) {
+			return wrapped.next();
+		}
+
+		fillPipeline();
+		current = pipeline.poll();
+
+		if (current == null) {
+			return false;
+		}
+
+		if (current.nextFailure != null) {
+			throw current.nextFailure;
+		}
+
+		fillPipeline();
+
+		return true;
+	}
+
+	/**
+	 * Releases the scripting engines of this iterator and of all tables
+	 * returned by it, if it was created with its own engines. Does nothing
+	 * for iterators using engines provided by their creator, e.g. a
+	 * {@link ScriptableDataSet}.
+	 */
+	public void close() {
+
+		if (ownEngines != null) {
+			ownEngines.close();
+		}
+	}
+
+	private PipelinedTable getCurrent() {
+
+		if (current == null) {
+			throw new IllegalStateException("next() must be invoked before accessing the current table.");
+		}
+
+		return current;
+	}
+
+	/**
+	 * Reads tables from the wrapped iterator and starts their evaluation, until
+	 * the configured number of tables is evaluated in advance. Failures of the
+	 * wrapped iterator are kept with the affected table, so they are raised
+	 * when the caller reaches that table.
+	 */
+	private void fillPipeline() {
+
+		while (!wrappedExhausted && pipeline.size() < pipelineDepth) {
+
+			PipelinedTable table = new PipelinedTable();
+
+			try {
+
+				if (!wrapped.next()) {
+					wrappedExhausted = true;
+					return;
+				}
+			}
+			catch (DataSetException e) {
+				table.nextFailure = e;
+				wrappedExhausted = true;
+			}
+
+			if (table.nextFailure == null) {
+
+				try {
+					table.start(wrapped.getTable());
+				}
+				catch (DataSetException e) {
+					table.tableFailure = e;
+				}
+			}
+
+			pipeline.add(table);
+		}
+	}
+
+	/**
+	 * A table of the wrapped iterator, together with the task evaluating it in
+	 * advance.
+	 */
+	private class PipelinedTable {
+
+		private ITable wrappedTable;
+
+		private FutureTask<ScriptableTable> evaluation;
+
+		private DataSetException nextFailure;
+
+		private DataSetException tableFailure;
+
+		void start(final ITable wrappedTable) {
+
+			this.wrappedTable = wrappedTable;
+
+			evaluation = new FutureTask<ScriptableTable>(new Callable<ScriptableTable>() {
+
+				public ScriptableTable call() throws DataSetException {
+
+					return dataSet.evaluateTable(wrappedTable);
+				}
+			});
+
+			pipelineExecutor.execute(evaluation);
+		}
+
+		ITable getTable() throws DataSetException {
+
+			if (tableFailure != null) {
+				throw tableFailure;
+			}
+
+			return ScriptableDataSet.await(evaluation, wrappedTable.getTableMetaData().getTableName());
+		}
+
+		ITableMetaData getTableMetaData() throws DataSetException {
+
+			if (tableFailure != null) {
+				throw tableFailure;
+			}
+
+			return wrappedTable.getTableMetaData();
+		}
 	}
 
 }
@@ -15,44 +15,107 @@
  */
 package de.gmorling.scriptabledataset;
 
+import java.io.Closeable;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
+import javax.script.Bindings;
+import javax.script.SimpleBindings;
 
+import org.apache.commons.lang.Validate;
+import org.dbunit.dataset.Column;
 import org.dbunit.dataset.DataSetException;
 import org.dbunit.dataset.ITable;
 import org.dbunit.dataset.ITableMetaData;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-
-import de.gmorling.scriptabledataset.handlers.ScriptInvocationHandler;
-import de.gmorling.scriptabledataset.handlers.StandardHandlerConfig;
 
 /**
  * ITable implementation, that allows the usage of script statements as field
- * values.
+ * values. A scriptable table may be read by several threads at once; the
+ * wrapped table is read by one thread at a time, though.
+ * <p>
+ * Scripts can access the row being evaluated using the bindings
+ * {@link #ROW_BINDING}, {@link #ROW_INDEX_BINDING},
+ * {@link #TABLE_NAME_BINDING} and {@link #COLUMN_NAME_BINDING}, e.g.
+ * "groovy:row.ID * 1000 + rowIndex". As only the bindings differ between
+ * rows, such a script is compiled once for all rows. Depending on the
+ * language, bindings may have to be accessed as global variables, e.g.
+ * "$row" in Ruby. The variables configured using
+ * {@link ScriptableDataSetConfig#setTableVariables(Map)} are provided as
+ * bindings as well. Bindings are not available to scripts evaluated in
+ * batches.
+ * </p>
+ * <p>
+ * A table created with its own scripting engines must be closed once it isn't
+ * needed any more. Tables obtained from a {@link ScriptableDataSet} share the
+ * engines of the data set and are released when the data set is closed.
+ * </p>
  * 
  * @author Gunnar Morling
  */
-public class ScriptableTable implements ITable {
+public class ScriptableTable implements ITable, Closeable {
+
+	/**
+	 * The name of the binding containing the values of the other columns of
+	 * the row being evaluated as a map from column names to values.
+	 */
+	public static final String ROW_BINDING = "row";
+
+	/**
+	 * The name of the binding containing the index of the row being evaluated.
+	 */
+	public static final String ROW_INDEX_BINDING = "rowIndex";
+
+	/**
+	 * The name of the binding containing the name of the table being
+	 * evaluated.
+	 */
+	public static final String TABLE_NAME_BINDING = "tableName";
 
-	private final Logger logger = LoggerFactory.getLogger(ScriptableTable.class);
+	/**
+	 * The name of the binding containing the name of the column being
+	 * evaluated.
+	 */
+	public static final String COLUMN_NAME_BINDING = "columnName";
 
 	private ITable wrapped;
 
-	private Map<String, ScriptEngine> enginesByPrefix = new HashMap<String, ScriptEngine>();
+	private ScriptPrefixTrie prefixes;
 
-	private Map<String, List<ScriptInvocationHandler>> handlersByPrefix = new HashMap<String, List<ScriptInvocationHandler>>();
+	private ScriptEngineRegistry engines;
 
 	/**
-	 * Creates a new ScriptableTable.
+	 * The registry created by this table for its own use or null, if the
+	 * engines are provided by the creator of this table.
+	 */
+	private ScriptEngineRegistry ownEngines;
+
+	private volatile MemoizedValues memoizedValues;
+
+	private volatile boolean columnarMemoization;
+
+	private volatile ScriptEvaluationListener listener;
+
+	private Map<String, ColumnClassification> classificationsByColumn = new ConcurrentHashMap<String, ColumnClassification>();
+
+	private volatile boolean coerceValues;
+
+	private volatile PersistentResultCache resultCache;
+
+	private TableVariables tableVariables;
+
+	private Map<String, ValueCoercer> coercersByColumn = new ConcurrentHashMap<String, ValueCoercer>();
+
+	/**
+	 * Creates a new ScriptableTable, which uses its own scripting engines.
+	 * These are released by {@link #close()}, which must be called once the
+	 * table isn't needed any more.
 	 * 
 	 * @param wrapped
 	 *            The ITable to be wrapped by this scriptable table. May not be
@@ -62,32 +125,331 @@ public class ScriptableTable implements ITable {
 	 */
 	public ScriptableTable(ITable wrapped, List<ScriptableDataSetConfig> configurations) {
 
+		this(wrapped, configurations, new ScriptEngineRegistry(configurations));
+
+		this.ownEngines = engines;
+	}
+
+	/**
+	 * Creates a new ScriptableTable.
+	 * 
+	 * @param wrapped
+	 *            The ITable to be wrapped by this scriptable table. May not be
+	 *            null.
+	 * @param configurations
+	 *            An list with configurations
+	 * @param engines
+	 *            A registry providing the scripting engines for the given
+	 *            configurations. May be shared with other tables.
+	 */
+	public ScriptableTable(ITable wrapped, List<ScriptableDataSetConfig> configurations, ScriptEngineRegistry engines) {
+
+		this(wrapped, new ScriptPrefixTrie(configurations), engines);
+	}
+
+	/**
+	 * Creates a new ScriptableTable.
+	 * 
+	 * @param wrapped
+	 *            The ITable to be wrapped by this scriptable table. May not be
+	 *            null.
+	 * @param prefixes
+	 *            A trie with the configurations to be applied.
+	 * @param engines
+	 *            A registry providing the scripting engines for the given
+	 *            configurations. May be shared with other tables.
+	 */
+	ScriptableTable(ITable wrapped, ScriptPrefixTrie prefixes, ScriptEngineRegistry engines) {
+
+		Validate.isTrue(prefixes.getConfigurations().size() <= Byte.MAX_VALUE, "At most " + Byte.MAX_VALUE + " configurations are supported.");
+
 		this.wrapped = wrapped;
+		this.prefixes = prefixes;
+		this.engines = engines;
+		this.tableVariables = new TableVariables(wrapped.getTableMetaData().getTableName());
+	}
+
+	/**
+	 * Enables memoization of script results for this table. Each scripted
+	 * field will then be evaluated only once, subsequent reads of the field
+	 * return the memoized result.
+	 * 
+	 * @param maxValues
+	 *            The maximum number of results to be memoized. Fields beyond
+	 *            this limit will be evaluated upon each read.
+	 */
+	public void enableMemoization(int maxValues) {
+
+		memoizedValues = columnarMemoization ? new MemoizedValues(getRowCount(), maxValues, getTableMetaData()) : new MemoizedValues(getRowCount(), maxValues);
+	}
+
+	/**
+	 * Whether memoized script results shall be kept in type-specialized
+	 * columns rather than as objects. Integral and floating point numbers,
+	 * dates and time stamps are then kept in primitive arrays, strings and
+	 * byte arrays in off-heap buffers. The result objects are created again
+	 * upon each read, which considerably reduces the heap retained by large
+	 * tables. The type of a column is given by its data type or, if it is
+	 * unknown, by the class of its first results. Must be set before
+	 * memoization is enabled.
+	 * 
+	 * @param columnarMemoization
+	 *            True, if memoized results shall be kept in columns, false
+	 *            otherwise.
+	 */
+	public void setColumnarMemoization(boolean columnarMemoization) {
+
+		this.columnarMemoization = columnarMemoization;
+	}
+
+	/**
+	 * Discards all memoized script results of this table, causing scripted
+	 * fields to be evaluated again when read the next time.
+	 */
+	public void clearMemoizedValues() {
+
+		if (memoizedValues != null) {
+			memoizedValues.clear();
+		}
+	}
+
+	/**
+	 * Registers a listener to be notified about each script evaluation of
+	 * this table.
+	 * 
+	 * @param listener
+	 *            The listener. May be null, in which case evaluations won't be
+	 *            measured.
+	 */
+	public void setEvaluationListener(ScriptEvaluationListener listener) {
+
+		this.listener = listener;
+	}
+
+	/**
+	 * Whether script results shall be converted into the Java type of their
+	 * column's {@link org.dbunit.dataset.datatype.DataType}, as given by this
+	 * table's meta data. Converted results are memoized, sparing DBUnit the
+	 * conversion of each value when it is read again. Results of columns of
+	 * unknown type, such as those of flat XML data sets, are never converted.
+	 * 
+	 * @param coerceValues
+	 *            True, if script results shall be converted, false otherwise.
+	 */
+	public void setCoerceValues(boolean coerceValues) {
+
+		this.coerceValues = coerceValues;
+	}
 
-		ScriptEngineManager manager = new ScriptEngineManager();
+	/**
+	 * Sets a cache providing the results of deterministic scripts.
+	 * 
+	 * @param resultCache
+	 *            The cache. May be null.
+	 */
+	void setResultCache(PersistentResultCache resultCache) {
+
+		this.resultCache = resultCache;
+	}
+
+	/**
+	 * Evaluates all scripted fields of this table using the given executor and
+	 * memoizes the results, so subsequent reads of these fields return the
+	 * memoized results. The rows of the table are split into chunks, which are
+	 * evaluated in parallel. Engines whose factory declares a "THREADING"
+	 * parameter are shared by all chunks, for all other engines a separate
+	 * engine is used per chunk being evaluated concurrently.
+	 * <p>
+	 * Memoization will be enabled with the given maximum number of values, if
+	 * it isn't enabled yet.
+	 * </p>
+	 * 
+	 * @param executor
+	 *            The executor used to evaluate the chunks. May not be null.
+	 * @param chunkSize
+	 *            The number of rows per chunk. Must be positive.
+	 * @param maxValues
+	 *            The maximum number of results to be memoized.
+	 * @throws DataSetException
+	 *             In case the fields of this table couldn't be read or
+	 *             evaluated.
+	 */
+	public void preEvaluate(Executor executor, int chunkSize, int maxValues) throws DataSetException {
+
+		Validate.notNull(executor);
+		Validate.isTrue(chunkSize > 0, "The chunk size must be positive.");
+
+		if (memoizedValues == null) {
+			enableMemoization(maxValues);
+		}
+
+		List<String> scriptedColumns = new ArrayList<String>();
+
+		for (Column oneColumn : getTableMetaData().getColumns()) {
+
+			String column = oneColumn.getColumnName();
+
+			if (getClassification(column).getKind() != ColumnClassification.Kind.LITERAL) {
+				scriptedColumns.add(column);
+			}
+		}
+
+		if (scriptedColumns.isEmpty()) {
+			return;
+		}
 
-		// load the engines
-		for (ScriptableDataSetConfig oneConfig : configurations) {
+		List<PreEvaluationChunk> chunks = new ArrayList<PreEvaluationChunk>();
 
-			ScriptEngine engine = manager.getEngineByName(oneConfig.getLanguageName());
+		for (int firstRow = 0; firstRow < getRowCount(); firstRow += chunkSize) {
 
-			if (engine != null) {
-				enginesByPrefix.put(oneConfig.getPrefix(), engine);
-				
-				List<ScriptInvocationHandler> handlers = getAllHandlers(oneConfig);
+			PreEvaluationChunk chunk = new PreEvaluationChunk(firstRow, Math.min(firstRow + chunkSize, getRowCount()), scriptedColumns);
+			chunks.add(chunk);
 
-				for (ScriptInvocationHandler oneHandler : handlers) {
-					oneHandler.setScriptEngine(engine);
+			executor.execute(chunk.task);
+		}
+
+		for (PreEvaluationChunk oneChunk : chunks) {
+
+			Object[][] results;
+
+			try {
+				results = oneChunk.task.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new DataSetException("Pre-evaluation of table " + getTableMetaData().getTableName() + " was interrupted.", e);
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				if (e.getCause() instanceof DataSetException) {
+					throw (DataSetException) e.getCause();
+				}
+				throw new DataSetException(e.getCause());
+			}
+
+			for (int i = 0; i < scriptedColumns.size(); i++) {
+				for (int row = oneChunk.firstRow; row < oneChunk.lastRow; row++) {
+					if (oneChunk.configs[i][row - oneChunk.firstRow] != null) {
+						memoizedValues.put(row, scriptedColumns.get(i), results[i][row - oneChunk.firstRow]);
+					}
 				}
-				
-				handlersByPrefix.put(oneConfig.getPrefix(), handlers);
-				
-				logger.info("Registered scripting engine {} for language {}.", engine, oneConfig.getLanguageName());
 			}
-			else {
-				throw new RuntimeException("No scripting engine found for language \"" + oneConfig.getLanguageName() + "\".");
+		}
+	}
+
+	/**
+	 * Evaluates all scripted fields of this table, whose configuration
+	 * contains a {@link de.gmorling.scriptabledataset.handlers.BatchScriptInvocationHandler},
+	 * in batches and memoizes the results. All fields of a batch belong to the
+	 * same column and configuration and are evaluated with one engine
+	 * invocation. Fields of other configurations are evaluated when read.
+	 * <p>
+	 * Memoization will be enabled with the given maximum number of values, if
+	 * it isn't enabled yet. Each field of a batch is reported to the
+	 * evaluation listener with the evaluation path
+	 * {@link ScriptEvaluationEvent.EvaluationPath#BATCH}.
+	 * </p>
+	 * 
+	 * @param batchSize
+	 *            The maximum number of fields per batch. Must be positive.
+	 * @param maxValues
+	 *            The maximum number of results to be memoized.
+	 * @throws DataSetException
+	 *             In case the fields of this table couldn't be read.
+	 */
+	public void batchEvaluate(int batchSize, int maxValues) throws DataSetException {
+
+		Validate.isTrue(batchSize > 0, "The batch size must be positive.");
+
+		if (memoizedValues == null) {
+			enableMemoization(maxValues);
+		}
+
+		for (Column oneColumn : getTableMetaData().getColumns()) {
+			batchEvaluate(oneColumn.getColumnName(), 0, getRowCount(), batchSize);
+		}
+	}
+
+	/**
+	 * Evaluates the scripted fields of the given column and row range in
+	 * batches, as described at {@link #batchEvaluate(int, int)}. Memoization
+	 * must be enabled.
+	 * 
+	 * @param column
+	 *            The name of the column to evaluate.
+	 * @param firstRow
+	 *            The first row to evaluate.
+	 * @param lastRow
+	 *            The row after the last row to evaluate.
+	 * @param batchSize
+	 *            The maximum number of fields per batch. Must be positive.
+	 * @throws DataSetException
+	 *             In case the fields of this table couldn't be read.
+	 */
+	public void batchEvaluate(String column, int firstRow, int lastRow, int batchSize) throws DataSetException {
+
+		Validate.isTrue(memoizedValues != null, "Memoization must be enabled for batch evaluation.");
+		Validate.isTrue(batchSize > 0, "The batch size must be positive.");
+
+		ColumnClassification classification = getClassification(column);
+
+		if (classification.getKind() == ColumnClassification.Kind.LITERAL) {
+			return;
+		}
+
+		Map<ScriptableDataSetConfig, Batch> batches = new HashMap<ScriptableDataSetConfig, Batch>();
+
+		for (int row = firstRow; row < lastRow; row++) {
+
+			ScriptableDataSetConfig config = classification.getConfig(row);
+
+			if (config == null) {
+				continue;
+			}
+
+			String script = ((String) getWrappedValue(row, column)).substring(config.getPrefix().length());
+			Object cachedResult = getCachedResult(config, row, column, script);
+
+			if (cachedResult != PersistentResultCache.NOT_CACHED) {
+				memoizedValues.put(row, column, coerce(column, cachedResult));
+				continue;
+			}
+
+			if (!engines.getEvaluator(config).isBatchCapable()) {
+				continue;
+			}
+
+			Batch batch = batches.get(config);
+
+			if (batch == null) {
+				batch = new Batch(config, column);
+				batches.put(config, batch);
+			}
+
+			batch.add(row, script);
+
+			if (batch.rows.size() == batchSize) {
+				batch.evaluate();
 			}
 		}
+
+		for (Batch oneBatch : batches.values()) {
+			oneBatch.evaluate();
+		}
+	}
+
+	/**
+	 * Releases the scripting engines of this table, if it was created with its
+	 * own engines. Does nothing for tables using engines provided by their
+	 * creator, e.g. a {@link ScriptableDataSet}.
+	 */
+	public void close() {
+
+		if (ownEngines != null) {
+			ownEngines.close();
+		}
 	}
 
 	/**
@@ -111,71 +473,404 @@ public class ScriptableTable implements ITable {
 	 */
 	public Object getValue(int row, String column) throws DataSetException {
 
-		Object theValue = wrapped.getValue(row, column);
+		ColumnClassification classification = getClassification(column);
+
+		// literal columns are passed through
+		if (classification.getKind() == ColumnClassification.Kind.LITERAL) {
+			return getWrappedValue(row, column);
+		}
 
-		// only strings can be processed
-		if (theValue instanceof String) {
-			String script = (String) theValue;
+		ScriptableDataSetConfig config;
+		String field = null;
 
-			for (Entry<String, ScriptEngine> oneEntry : enginesByPrefix.entrySet()) {
+		if (classification.getKind() == ColumnClassification.Kind.UNEXAMINED) {
 
-				String prefix = oneEntry.getKey();
+			Object value = getWrappedValue(row, column);
 
-				// found engine for prefix
-				if (script.startsWith(prefix)) {
+			// only strings can be processed
+			if (!(value instanceof String)) {
+				return value;
+			}
 
-					ScriptEngine engine = oneEntry.getValue();
-					script = script.substring(prefix.length());
+			field = (String) value;
+			config = prefixes.getLongestMatch(field);
 
-					List<ScriptInvocationHandler> handlers = handlersByPrefix.get(oneEntry.getKey());
+			if (config == null) {
+				return value;
+			}
+		}
+		else {
 
-					try {
+			config = classification.getConfig(row);
 
-						//preInvoke
-						for (ScriptInvocationHandler handler : handlers) {
-							script = handler.preInvoke(script);
-						}
+			if (config == null) {
+				return getWrappedValue(row, column);
+			}
+		}
 
-						logger.debug("Executing script: {}", script);
+		if (memoizedValues != null) {
 
-						// the actual script evaluation
-						theValue = engine.eval(script);
+			Object memoizedValue = memoizedValues.get(row, column);
 
-						// call postInvoke in reversed order
-						Collections.reverse(handlers);
-						for (ScriptInvocationHandler handler : handlers) {
-							theValue = handler.postInvoke(theValue);
-						}
+			if (memoizedValue != MemoizedValues.NOT_MEMOIZED) {
 
-					}
-					catch (Exception e) {
-						throw new RuntimeException(e);
-					}
+				if (listener != null) {
+					listener.memoizedValueRead(getTableMetaData().getTableName(), row, column);
 				}
+
+				return memoizedValue;
+			}
+		}
+
+		if (field == null) {
+			field = (String) getWrappedValue(row, column);
+		}
+
+		String script = field.substring(config.getPrefix().length());
+		Object theValue = getCachedResult(config, row, column, script);
+
+		if (theValue == PersistentResultCache.NOT_CACHED) {
+
+			ScriptEvaluator evaluator = engines.acquireEvaluator(config);
+
+			try {
+				theValue = evaluate(evaluator, row, column, script);
+			}
+			finally {
+				engines.releaseEvaluator(evaluator);
 			}
+
+			cacheResult(config, script, theValue);
+		}
+
+		theValue = coerce(column, theValue);
+
+		if (memoizedValues != null) {
+			memoizedValues.put(row, column, theValue);
+		}
+
+		return theValue;
+	}
+
+	/**
+	 * Reads a field of the wrapped table. DBUnit tables needn't be
+	 * thread-safe, but the wrapped table is read by all threads reading this
+	 * table and by the pre-evaluation tasks, e.g. when scripts access other
+	 * columns using the row binding. So reads are synchronized on the wrapped
+	 * table.
+	 */
+	private Object getWrappedValue(int row, String column) throws DataSetException {
+
+		synchronized (wrapped) {
+			return wrapped.getValue(row, column);
+		}
+	}
+
+	/**
+	 * Evaluates one scripted field, notifying the listener if present.
+	 */
+	private Object evaluate(ScriptEvaluator evaluator, int row, String column, String script) throws DataSetException {
+
+		Bindings bindings = createBindings(evaluator, row, column);
+		ScriptEvaluationListener currentListener = listener;
+
+		if (currentListener == null) {
+			return evaluator.evaluate(script, null, bindings);
+		}
+
+		ScriptEvaluationEvent event = new ScriptEvaluationEvent(getTableMetaData().getTableName(), row, column, evaluator.getConfig());
+		Object theValue = evaluator.evaluate(script, event, bindings);
+
+		currentListener.scriptEvaluated(event);
+
+		return theValue;
+	}
+
+	/**
+	 * Returns the result of the given script from the result cache, if the
+	 * script is deterministic. The configuration's engine isn't loaded for
+	 * this, as the name and version being part of the cache key are taken
+	 * from its factory. Cache hits are reported to the listener if present.
+	 */
+	private Object getCachedResult(ScriptableDataSetConfig config, int row, String column, String script) {
+
+		PersistentResultCache cache = resultCache;
+
+		if (cache == null || !config.isDeterministic()) {
+			return PersistentResultCache.NOT_CACHED;
+		}
+
+		ScriptEvaluationListener currentListener = listener;
+		long start = currentListener != null ? System.nanoTime() : 0;
+
+		Object theValue = cache.get(config, engines.getFactory(config), script);
+
+		if (currentListener != null && theValue != PersistentResultCache.NOT_CACHED) {
+
+			ScriptEvaluationEvent event = new ScriptEvaluationEvent(getTableMetaData().getTableName(), row, column, config);
+			event.setScript(script);
+			event.setEvaluationPath(ScriptEvaluationEvent.EvaluationPath.PERSISTENT_RESULT_CACHE_HIT);
+			event.setEvaluationNanos(System.nanoTime() - start);
+
+			currentListener.scriptEvaluated(event);
+		}
+
+		return theValue;
+	}
+
+	/**
+	 * Adds the result of the given script to the result cache, if the script
+	 * is deterministic.
+	 */
+	private void cacheResult(ScriptableDataSetConfig config, String script, Object result) {
+
+		PersistentResultCache cache = resultCache;
+
+		if (cache != null && config.isDeterministic()) {
+			cache.put(config, engines.getFactory(config), script, result);
 		}
+	}
+
+	/**
+	 * Converts the given script result into the type of the given column, if
+	 * coercion is enabled.
+	 */
+	private Object coerce(String column, Object value) throws DataSetException {
+
+		if (!coerceValues) {
+			return value;
+		}
+
+		String key = column.toUpperCase();
+		ValueCoercer coercer = coercersByColumn.get(key);
+
+		if (coercer == null) {
+
+			ITableMetaData metaData = getTableMetaData();
+
+			coercer = new ValueCoercer(metaData.getColumns()[metaData.getColumnIndex(column)].getDataType());
+			coercersByColumn.put(key, coercer);
+		}
+
+		return coercer.coerce(value);
+	}
+
+	/**
+	 * Creates the bindings for evaluating the given field.
+	 */
+	private Bindings createBindings(ScriptEvaluator evaluator, final int row, String column) throws DataSetException {
+
+		Bindings theValue = new SimpleBindings();
+
+		theValue.putAll(tableVariables.get(evaluator));
+
+		theValue.put(ROW_BINDING, new RowValues(getTableMetaData().getColumns(), column) {
+
+			@Override
+			protected Object getValue(String column) throws DataSetException {
+				return ScriptableTable.this.getValue(row, column);
+			}
+		});
+		theValue.put(ROW_INDEX_BINDING, row);
+		theValue.put(TABLE_NAME_BINDING, getTableMetaData().getTableName());
+		theValue.put(COLUMN_NAME_BINDING, column);
 
 		return theValue;
 	}
 
 	/**
-	 * Returns a list with all standard handlers registered for the language of
-	 * the config and all handlers declared in the config itself.
+	 * Returns the classification of the given column, examining the column's
+	 * fields upon first access, if the wrapped table allows for this. Concurrent first accesses may classify a
+	 * column more than once, yielding the same result.
 	 * 
-	 * @param config
-	 *            A config object.
-	 * @return A list with handlers. Never null.
+	 * @param column
+	 *            The name of a column.
+	 * @return The classification of the given column.
+	 * @throws DataSetException
+	 *             In case the column's fields couldn't be read.
 	 */
-	private List<ScriptInvocationHandler> getAllHandlers(ScriptableDataSetConfig config) {
+	private ColumnClassification getClassification(String column) throws DataSetException {
 
-		List<ScriptInvocationHandler> theValue = new ArrayList<ScriptInvocationHandler>();
+		String key = column.toUpperCase();
+		ColumnClassification theValue = classificationsByColumn.get(key);
 
-		// standard handlers for the language
-		theValue.addAll(StandardHandlerConfig.getStandardHandlersByLanguage(config.getLanguageName()));
+		if (theValue == null) {
 
-		// custom handlers
-		theValue.addAll(config.getHandlers());
+			synchronized (wrapped) {
+				theValue = ColumnClassification.classify(wrapped, column, prefixes);
+			}
+
+			classificationsByColumn.put(key, theValue);
+		}
 
 		return theValue;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * The scripts of one column and configuration to be evaluated with one
+	 * engine invocation.
+	 */
+	private class Batch {
+
+		private final ScriptableDataSetConfig config;
+
+		private final String column;
+
+		private final List<Integer> rows = new ArrayList<Integer>();
+
+		private final List<String> scripts = new ArrayList<String>();
+
+		Batch(ScriptableDataSetConfig config, String column) {
+
+			this.config = config;
+			this.column = column;
+		}
+
+		void add(int row, String script) {
+
+			rows.add(row);
+			scripts.add(script);
+		}
+
+		/**
+		 * Evaluates and memoizes the scripts added so far and empties this
+		 * batch.
+		 */
+		void evaluate() throws DataSetException {
+
+			if (rows.isEmpty()) {
+				return;
+			}
+
+			List<Object> results;
+			ScriptEvaluationListener currentListener = listener;
+			long start = currentListener != null ? System.nanoTime() : 0;
+			ScriptEvaluator evaluator = engines.acquireEvaluator(config);
+
+			try {
+				results = evaluator.evaluateBatch(scripts);
+			}
+			finally {
+				engines.releaseEvaluator(evaluator);
+			}
+
+			long nanosPerField = currentListener != null ? (System.nanoTime() - start) / rows.size() : 0;
+
+			for (int i = 0; i < rows.size(); i++) {
+
+				cacheResult(config, scripts.get(i), results.get(i));
+				memoizedValues.put(rows.get(i), column, coerce(column, results.get(i)));
+
+				if (currentListener != null) {
+
+					ScriptEvaluationEvent event = new ScriptEvaluationEvent(getTableMetaData().getTableName(), rows.get(i), column, config);
+					event.setScript(scripts.get(i));
+					event.setEvaluationPath(ScriptEvaluationEvent.EvaluationPath.BATCH);
+					event.setEvaluationNanos(nanosPerField);
+
+					currentListener.scriptEvaluated(event);
+				}
+			}
+
+			rows.clear();
+			scripts.clear();
+		}
+	}
+
+	/**
+	 * A range of rows to be evaluated by one task during pre-evaluation. The
+	 * scripts are read from the wrapped table upon creation, so the tasks
+	 * only read the wrapped table for the values accessed through the row
+	 * binding.
+	 */
+	private class PreEvaluationChunk {
+
+		private final List<String> columns;
+
+		private final int firstRow;
+
+		private final int lastRow;
+
+		private final ScriptableDataSetConfig[][] configs;
+
+		private final String[][] scripts;
+
+		private final FutureTask<Object[][]> task;
+
+		PreEvaluationChunk(int firstRow, int lastRow, List<String> columns) throws DataSetException {
+
+			this.columns = columns;
+			this.firstRow = firstRow;
+			this.lastRow = lastRow;
+
+			configs = new ScriptableDataSetConfig[columns.size()][lastRow - firstRow];
+			scripts = new String[columns.size()][lastRow - firstRow];
+
+			for (int i = 0; i < columns.size(); i++) {
+
+				ColumnClassification classification = getClassification(columns.get(i));
+
+				for (int row = firstRow; row < lastRow; row++) {
+
+					ScriptableDataSetConfig config = classification.getConfig(row);
+
+					// skip fields already evaluated in batches
+					if (config != null && memoizedValues.get(row, columns.get(i)) == MemoizedValues.NOT_MEMOIZED) {
+						configs[i][row - firstRow] = config;
+						scripts[i][row - firstRow] = ((String) getWrappedValue(row, columns.get(i))).substring(config.getPrefix().length());
+					}
+				}
+			}
+
+			task = new FutureTask<Object[][]>(new Callable<Object[][]>() {
+
+				public Object[][] call() throws DataSetException {
+					return evaluate();
+				}
+			});
+		}
+
+		private Object[][] evaluate() throws DataSetException {
+
+			Map<ScriptableDataSetConfig, ScriptEvaluator> evaluators = new HashMap<ScriptableDataSetConfig, ScriptEvaluator>();
+			Object[][] theValue = new Object[scripts.length][lastRow - firstRow];
+
+			try {
+				for (int i = 0; i < scripts.length; i++) {
+					for (int j = 0; j < scripts[i].length; j++) {
+
+						ScriptableDataSetConfig config = configs[i][j];
+
+						if (config == null) {
+							continue;
+						}
+
+						Object result = getCachedResult(config, firstRow + j, columns.get(i), scripts[i][j]);
+
+						if (result == PersistentResultCache.NOT_CACHED) {
+
+							ScriptEvaluator evaluator = evaluators.get(config);
+
+							if (evaluator == null) {
+								evaluator = engines.acquireEvaluator(config);
+								evaluators.put(config, evaluator);
+							}
+
+							result = ScriptableTable.this.evaluate(evaluator, firstRow + j, columns.get(i), scripts[i][j]);
+							cacheResult(config, scripts[i][j], result);
+						}
+
+						theValue[i][j] = coerce(columns.get(i), result);
+					}
+				}
+			}
+			finally {
+				for (ScriptEvaluator oneEvaluator : evaluators.values()) {
+					engines.releaseEvaluator(oneEvaluator);
+				}
+			}
+
+			return theValue;
+		}
+	}
+}
@@ -0,0 +1,636 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Evaluates simple expressions without a scripting engine, yielding the same
+ * results as the engine of the expression's language. Supported are numeric
+ * literals, string literals without escapes or interpolation, null and the
+ * boolean literals, parentheses and the operators +, -, * and %, as well as /
+ * for Ruby. The result types follow the respective language:
+ * <ul>
+ * <li><b>Groovy</b>: Integer, Long and BigDecimal; int and long arithmetic
+ * overflows silently. A string may be concatenated with any value and
+ * repeated by an Integer.</li>
+ * <li><b>Ruby</b>: Long and Double; division and modulo of integers are
+ * floored. A string may be concatenated with a string and repeated by an
+ * integer.</li>
+ * <li><b>JavaScript</b>: Strings only, as numbers are represented differently
+ * by the various engines.</li>
+ * </ul>
+ * Any other expression, e.g. one referring to a variable, calling a method,
+ * spanning several lines or exceeding the range of long values, is left to
+ * the engine.
+ * <p>
+ * Instances are immutable and may be used by several threads at once.
+ * </p>
+ * 
+ * @author Gunnar Morling
+ */
+class SimpleExpressionEvaluator {
+
+	/**
+	 * Returned by {@link #evaluate(String)} for expressions, which must be
+	 * evaluated by the engine.
+	 */
+	static final Object NOT_SIMPLE = new Object();
+
+	private static final NotSimpleException NOT_SIMPLE_EXCEPTION = new NotSimpleException();
+
+	private static final BigInteger MIN_LONG = BigInteger.valueOf(Long.MIN_VALUE);
+
+	private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+
+	private enum Dialect {
+		GROOVY, RUBY, JAVASCRIPT
+	}
+
+	private final Dialect dialect;
+
+	private SimpleExpressionEvaluator(Dialect dialect) {
+
+		this.dialect = dialect;
+	}
+
+	/**
+	 * Returns an evaluator for the given language.
+	 * 
+	 * @param languageName
+	 *            The name of a scripting language, e.g. "groovy".
+	 * @return An evaluator for the given language or null, if simple
+	 *         expressions of that language aren't supported.
+	 */
+	static SimpleExpressionEvaluator forLanguage(String languageName) {
+
+		String name = languageName.toLowerCase();
+
+		if (name.equals("groovy")) {
+			return new SimpleExpressionEvaluator(Dialect.GROOVY);
+		}
+		else if (name.equals("jruby") || name.equals("ruby")) {
+			return new SimpleExpressionEvaluator(Dialect.RUBY);
+		}
+		else if (name.equals("javascript") || name.equals("js") || name.equals("ecmascript") || name.equals("rhino") || name.equals("nashorn")) {
+			return new SimpleExpressionEvaluator(Dialect.JAVASCRIPT);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Evaluates the given script, if it is a simple expression.
+	 * 
+	 * @param script
+	 *            The script to evaluate, with its prefix already removed.
+	 * @return The result of the expression or {@link #NOT_SIMPLE}, if the
+	 *         script isn't a simple expression.
+	 */
+	Object evaluate(String script) {
+
+		try {
+			return new Expression(script).evaluate();
+		}
+		catch (NotSimpleException e) {
+			return NOT_SIMPLE;
+		}
+	}
+
+	private Object add(Object left, Object right) throws NotSimpleException {
+
+		if (left instanceof String) {
+
+			if (right instanceof String || (dialect == Dialect.GROOVY && (right == null || right instanceof Number || right instanceof Boolean))) {
+				return (String) left + right;
+			}
+
+			throw NOT_SIMPLE_EXCEPTION;
+		}
+
+		if (dialect == Dialect.GROOVY) {
+
+			if (isDecimal(left, right)) {
+				return toBigDecimal(left).add(toBigDecimal(right));
+			}
+			else if (isLong(left, right)) {
+				return toLong(left) + toLong(right);
+			}
+
+			return toInteger(left) + toInteger(right);
+		}
+
+		if (isDouble(left, right)) {
+			return toDouble(left) + toDouble(right);
+		}
+
+		long a = toLong(left);
+		long b = toLong(right);
+		long theValue = a + b;
+
+		if (((a ^ theValue) & (b ^ theValue)) < 0) {
+			throw NOT_SIMPLE_EXCEPTION;
+		}
+
+		return theValue;
+	}
+
+	private Object subtract(Object left, Object right) throws NotSimpleException {
+
+		if (dialect == Dialect.GROOVY) {
+
+			if (isDecimal(left, right)) {
+				return toBigDecimal(left).subtract(toBigDecimal(right));
+			}
+			else if (isLong(left, right)) {
+				return toLong(left) - toLong(right);
+			}
+
+			return toInteger(left) - toInteger(right);
+		}
+
+		if (isDouble(left, right)) {
+			return toDouble(left) - toDouble(right);
+		}
+
+		long a = toLong(left);
+		long b = toLong(right);
+		long theValue = a - b;
+
+		if (((a ^ b) & (a ^ theValue)) < 0) {
+			throw NOT_SIMPLE_EXCEPTION;
+		}
+
+		return theValue;
+	}
+
+	private Object multiply(Object left, Object right) throws NotSimpleException {
+
+		if (left instanceof String) {
+
+			if (dialect == Dialect.GROOVY && right instanceof Integer || dialect == Dialect.RUBY && right instanceof Long) {
+				return repeat((String) left, ((Number) right).longValue());
+			}
+
+			throw NOT_SIMPLE_EXCEPTION;
+		}
+
+		if (dialect == Dialect.GROOVY) {
+
+			if (isDecimal(left, right)) {
+				return toBigDecimal(left).multiply(toBigDecimal(right));
+			}
+			else if (isLong(left, right)) {
+				return toLong(left) * toLong(right);
+			}
+
+			return toInteger(left) * toInteger(right);
+		}
+
+		if (isDouble(left, right)) {
+			return toDouble(left) * toDouble(right);
+		}
+
+		long a = toLong(left);
+		long b = toLong(right);
+		long theValue = a * b;
+
+		if (a != 0 && (theValue / a != b || (a == -1 && b == Long.MIN_VALUE))) {
+			throw NOT_SIMPLE_EXCEPTION;
+		}
+
+		return theValue;
+	}
+
+	private Object divide(Object left, Object right) throws NotSimpleException {
+
+		// Groovy divides integers into BigDecimals with a language-specific
+		// scale
+		if (dialect != Dialect.RUBY) {
+			throw NOT_SIMPLE_EXCEPTION;
+		}
+
+		if (isDouble(left, right)) {
+			return toDouble(left) / toDouble(right);
+		}
+
+		long a = toLong(left);
+		long b = toLong(right);
+
+		if (b == 0 || (a == Long.MIN_VALUE && b == -1)) {
+			throw NOT_SIMPLE_EXCEPTION;
+		}
+
+		long theValue = a / b;
+
+		// Ruby rounds towards negative infinity
+		if ((a % b != 0) && ((a < 0) != (b < 0))) {
+			theValue--;
+		}
+
+		return theValue;
+	}
+
+	private Object remainder(Object left, Object right) throws NotSimpleException {
+
+		if (dialect == Dialect.GROOVY) {
+
+			if (isDecimal(left, right) || toLong(right) == 0) {
+				throw NOT_SIMPLE_EXCEPTION;
+			}
+			else if (isLong(left, right)) {
+				return toLong(left) % toLong(right);
+			}
+
+			return toInteger(left) % toInteger(right);
+		}
+
+		if (isDouble(left, right)) {
+			throw NOT_SIMPLE_EXCEPTION;
+		}
+
+		long a = toLong(left);
+		long b = toLong(right);
+
+		if (b == 0) {
+			throw NOT_SIMPLE_EXCEPTION;
+		}
+
+		long theValue = a % b;
+
+		// the result of Ruby's modulo has the sign of the divisor
+		if (theValue != 0 && ((theValue < 0) != (b < 0))) {
+			theValue += b;
+		}
+
+		return theValue;
+	}
+
+	private Object negate(Object value) throws NotSimpleException {
+
+		if (value instanceof Integer) {
+			return -(Integer) value;
+		}
+		else if (value instanceof Long && (dialect == Dialect.GROOVY || (Long) value != Long.MIN_VALUE)) {
+			return -(Long) value;
+		}
+		else if (value instanceof BigDecimal) {
+			return ((BigDecimal) value).negate();
+		}
+		else if (value instanceof Double) {
+			return -(Double) value;
+		}
+
+		throw NOT_SIMPLE_EXCEPTION;
+	}
+
+	private String repeat(String value, long count) throws NotSimpleException {
+
+		if (count < 0 || value.length() * count > Integer.MAX_VALUE) {
+			throw NOT_SIMPLE_EXCEPTION;
+		}
+
+		StringBuilder theValue = new StringBuilder((int) (value.length() * count));
+
+		for (long i = 0; i < count; i++) {
+			theValue.append(value);
+		}
+
+		return theValue.toString();
+	}
+
+	private boolean isDecimal(Object left, Object right) throws NotSimpleException {
+
+		checkNumbers(left, right);
+		return left instanceof BigDecimal || right instanceof BigDecimal;
+	}
+
+	private boolean isLong(Object left, Object right) throws NotSimpleException {
+
+		checkNumbers(left, right);
+		return left instanceof Long || right instanceof Long;
+	}
+
+	private boolean isDouble(Object left, Object right) throws NotSimpleException {
+
+		checkNumbers(left, right);
+		return left instanceof Double || right instanceof Double;
+	}
+
+	private void checkNumbers(Object left, Object right) throws NotSimpleException {
+
+		if (!(left instanceof Number) || !(right instanceof Number)) {
+			throw NOT_SIMPLE_EXCEPTION;
+		}
+	}
+
+	private BigDecimal toBigDecimal(Object value) {
+
+		return value instanceof BigDecimal ? (BigDecimal) value : BigDecimal.valueOf(((Number) value).longValue());
+	}
+
+	private long toLong(Object value) throws NotSimpleException {
+
+		if (!(value instanceof Long || value instanceof Integer)) {
+			throw NOT_SIMPLE_EXCEPTION;
+		}
+
+		return ((Number) value).longValue();
+	}
+
+	private int toInteger(Object value) {
+
+		return ((Number) value).intValue();
+	}
+
+	private double toDouble(Object value) {
+
+		return ((Number) value).doubleValue();
+	}
+
+	/**
+	 * A recursive descent parser for one expression, which evaluates the
+	 * expression while parsing it.
+	 */
+	private class Expression {
+
+		private final String script;
+
+		private int position = 0;
+
+		Expression(String script) {
+
+			this.script = script;
+		}
+
+		Object evaluate() throws NotSimpleException {
+
+			Object theValue = parseSum();
+
+			skipWhitespace();
+
+			if (position != script.length()) {
+				throw NOT_SIMPLE_EXCEPTION;
+			}
+
+			return theValue;
+		}
+
+		private Object parseSum() throws NotSimpleException {
+
+			Object theValue = parseProduct();
+
+			while (true) {
+
+				skipWhitespace();
+
+				if (acceptOperator('+')) {
+					theValue = add(theValue, parseProduct());
+				}
+				else if (acceptOperator('-')) {
+					theValue = subtract(theValue, parseProduct());
+				}
+				else {
+					return theValue;
+				}
+			}
+		}
+
+		private Object parseProduct() throws NotSimpleException {
+
+			Object theValue = parseUnary();
+
+			while (true) {
+
+				skipWhitespace();
+
+				if (accept('*')) {
+					theValue = multiply(theValue, parseUnary());
+				}
+				else if (accept('/')) {
+					theValue = divide(theValue, parseUnary());
+				}
+				else if (accept('%')) {
+					theValue = remainder(theValue, parseUnary());
+				}
+				else {
+					return theValue;
+				}
+			}
+		}
+
+		private Object parseUnary() throws NotSimpleException {
+
+			skipWhitespace();
+
+			if (acceptOperator('-')) {
+
+				skipWhitespace();
+
+				// negative literals may use the full range of their type
+				if (position < script.length() && isDigit(script.charAt(position))) {
+					return parseNumber(true);
+				}
+
+				return negate(parseUnary());
+			}
+
+			return parsePrimary();
+		}
+
+		private Object parsePrimary() throws NotSimpleException {
+
+			if (position == script.length()) {
+				throw NOT_SIMPLE_EXCEPTION;
+			}
+
+			char c = script.charAt(position);
+
+			if (c == '(') {
+
+				position++;
+				Object theValue = parseSum();
+				skipWhitespace();
+
+				if (!accept(')')) {
+					throw NOT_SIMPLE_EXCEPTION;
+				}
+
+				return theValue;
+			}
+			else if (c == '\'' || c == '"') {
+				return parseString(c);
+			}
+			else if (isDigit(c)) {
+				return parseNumber(false);
+			}
+			else if (Character.isJavaIdentifierStart(c)) {
+				return parseKeyword();
+			}
+
+			throw NOT_SIMPLE_EXCEPTION;
+		}
+
+		private Object parseNumber(boolean negative) throws NotSimpleException {
+
+			int start = position;
+			boolean decimal = false;
+
+			skipDigits();
+
+			if (position < script.length() - 1 && script.charAt(position) == '.' && isDigit(script.charAt(position + 1))) {
+				decimal = true;
+				position++;
+				skipDigits();
+			}
+
+			// octal literals, suffixes, exponents or method calls
+			if ((script.charAt(start) == '0' && position - start > 1 && isDigit(script.charAt(start + 1))) || (position < script.length() && (Character.isJavaIdentifierPart(script.charAt(position)) || script.charAt(position) == '.'))) {
+				throw NOT_SIMPLE_EXCEPTION;
+			}
+
+			String literal = negative ? "-" + script.substring(start, position) : script.substring(start, position);
+
+			if (decimal) {
+
+				if (dialect == Dialect.GROOVY) {
+					return new BigDecimal(literal);
+				}
+				else if (dialect == Dialect.RUBY) {
+					return Double.valueOf(literal);
+				}
+
+				throw NOT_SIMPLE_EXCEPTION;
+			}
+
+			BigInteger value = new BigInteger(literal);
+
+			// Ruby parses negative literals as negated positive ones, so the
+			// minimum long value is a big integer there
+			if (dialect == Dialect.JAVASCRIPT || value.compareTo(MIN_LONG) < (dialect == Dialect.RUBY ? 1 : 0) || value.compareTo(MAX_LONG) > 0) {
+				throw NOT_SIMPLE_EXCEPTION;
+			}
+
+			if (dialect == Dialect.GROOVY && value.bitLength() < 32) {
+				return value.intValue();
+			}
+
+			return value.longValue();
+		}
+
+		private String parseString(char quote) throws NotSimpleException {
+
+			int start = ++position;
+
+			while (position < script.length()) {
+
+				char c = script.charAt(position);
+
+				if (c == quote) {
+					return script.substring(start, position++);
+				}
+				else if (c == '\\' || c == '\n' || c == '\r' || (quote == '"' && ((dialect == Dialect.GROOVY && c == '$') || (dialect == Dialect.RUBY && c == '#')))) {
+					throw NOT_SIMPLE_EXCEPTION;
+				}
+
+				position++;
+			}
+
+			throw NOT_SIMPLE_EXCEPTION;
+		}
+
+		private Object parseKeyword() throws NotSimpleException {
+
+			int start = position;
+
+			while (position < script.length() && Character.isJavaIdentifierPart(script.charAt(position))) {
+				position++;
+			}
+
+			String keyword = script.substring(start, position);
+
+			if (keyword.equals("true")) {
+				return Boolean.TRUE;
+			}
+			else if (keyword.equals("false")) {
+				return Boolean.FALSE;
+			}
+			else if (keyword.equals(dialect == Dialect.RUBY ? "nil" : "null")) {
+				return null;
+			}
+
+			throw NOT_SIMPLE_EXCEPTION;
+		}
+
+		private void skipDigits() {
+
+			while (position < script.length() && isDigit(script.charAt(position))) {
+				position++;
+			}
+		}
+
+		private void skipWhitespace() {
+
+			while (position < script.length() && (script.charAt(position) == ' ' || script.charAt(position) == '\t')) {
+				position++;
+			}
+		}
+
+		/**
+		 * Accepts the given operator, unless it is followed by the same
+		 * character, e.g. the decrement operator "--" of Groovy.
+		 */
+		private boolean acceptOperator(char c) {
+
+			if (position < script.length() - 1 && script.charAt(position + 1) == c) {
+				return false;
+			}
+
+			return accept(c);
+		}
+
+		private boolean isDigit(char c) {
+
+			return c >= '0' && c <= '9';
+		}
+
+		private boolean accept(char c) {
+
+			if (position < script.length() && script.charAt(position) == c) {
+				position++;
+				return true;
+			}
+
+			return false;
+		}
+	}
+
+	/**
+	 * Signals an expression, which isn't simple. A single instance without
+	 * stack trace is used, as this is an expected outcome.
+	 */
+	private static class NotSimpleException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+
+			return this;
+		}
+	}
+}
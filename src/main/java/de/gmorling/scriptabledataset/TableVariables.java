@@ -0,0 +1,89 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.script.Bindings;
+import javax.script.SimpleBindings;
+
+/**
+ * The variables of one table, as configured by
+ * {@link ScriptableDataSetConfig#setTableVariables(Map)}. The variables of a
+ * configuration are computed when they are requested for the first time.
+ * 
+ * @author Gunnar Morling
+ */
+class TableVariables {
+
+	private final String tableName;
+
+	private final Map<ScriptableDataSetConfig, Map<String, Object>> variablesByConfig = new HashMap<ScriptableDataSetConfig, Map<String, Object>>();
+
+	/**
+	 * Creates a new TableVariables.
+	 * 
+	 * @param tableName
+	 *            The name of the table.
+	 */
+	TableVariables(String tableName) {
+
+		this.tableName = tableName;
+	}
+
+	/**
+	 * Returns the variables of the given evaluator's configuration, computing
+	 * them with that evaluator if required.
+	 * 
+	 * @param evaluator
+	 *            An evaluator acquired by the calling thread.
+	 * @return The variables by name. Never null.
+	 */
+	synchronized Map<String, Object> get(ScriptEvaluator evaluator) {
+
+		ScriptableDataSetConfig config = evaluator.getConfig();
+
+		if (config.getTableVariables().isEmpty()) {
+			return Collections.emptyMap();
+		}
+
+		Map<String, Object> theValue = variablesByConfig.get(config);
+
+		if (theValue == null) {
+
+			theValue = new LinkedHashMap<String, Object>();
+
+			Bindings bindings = new SimpleBindings();
+			bindings.put(ScriptableTable.TABLE_NAME_BINDING, tableName);
+
+			for (Map.Entry<String, String> oneVariable : config.getTableVariables().entrySet()) {
+
+				Object value = evaluator.evaluate(oneVariable.getValue(), null, bindings);
+
+				theValue.put(oneVariable.getKey(), value);
+				bindings.put(oneVariable.getKey(), value);
+			}
+
+			theValue = Collections.unmodifiableMap(theValue);
+			variablesByConfig.put(config, theValue);
+		}
+
+		return theValue;
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.dbunit.dataset.datatype.DataType;
+import org.dbunit.dataset.datatype.TypeCastException;
+
+/**
+ * Converts script results into the Java type of a column's {@link DataType}.
+ * The target type is resolved once per column. Numbers, dates and calendars
+ * are converted directly, all other values are converted using
+ * {@link DataType#typeCast(Object)}. Values of columns of unknown type are
+ * returned unchanged.
+ * 
+ * @author Gunnar Morling
+ */
+class ValueCoercer {
+
+	private enum Target {
+		NONE, STRING, INTEGER, LONG, SHORT, BYTE, DOUBLE, FLOAT, BIG_DECIMAL, BIG_INTEGER, TIMESTAMP, DATE, TIME, OTHER
+	}
+
+	private final DataType dataType;
+
+	private final Class<?> targetClass;
+
+	private final Target target;
+
+	/**
+	 * Creates a new ValueCoercer.
+	 * 
+	 * @param dataType
+	 *            The type of the column whose values shall be converted. May
+	 *            not be null.
+	 */
+	ValueCoercer(DataType dataType) {
+
+		this.dataType = dataType;
+		this.targetClass = dataType.getTypeClass();
+		this.target = getTarget(dataType, targetClass);
+	}
+
+	/**
+	 * Converts the given value into the type of this coercer's column.
+	 * 
+	 * @param value
+	 *            A script result. May be null.
+	 * @return The converted value.
+	 * @throws TypeCastException
+	 *             In case the value can't be converted.
+	 */
+	Object coerce(Object value) throws TypeCastException {
+
+		if (value == null || target == Target.NONE || targetClass.isInstance(value)) {
+			return value;
+		}
+
+		switch (target) {
+
+			case STRING:
+				if (value instanceof Number || value instanceof Boolean || value instanceof Character) {
+					return value.toString();
+				}
+				break;
+
+			case INTEGER:
+				if (value instanceof Number) {
+					return Integer.valueOf(((Number) value).intValue());
+				}
+				break;
+
+			case LONG:
+				if (value instanceof Number) {
+					return Long.valueOf(((Number) value).longValue());
+				}
+				break;
+
+			case SHORT:
+				if (value instanceof Number) {
+					return Short.valueOf(((Number) value).shortValue());
+				}
+				break;
+
+			case BYTE:
+				if (value instanceof Number) {
+					return Byte.valueOf(((Number) value).byteValue());
+				}
+				break;
+
+			case DOUBLE:
+				if (value instanceof Number) {
+					return Double.valueOf(((Number) value).doubleValue());
+				}
+				break;
+
+			case FLOAT:
+				if (value instanceof Number) {
+					return Float.valueOf(((Number) value).floatValue());
+				}
+				break;
+
+			case BIG_DECIMAL:
+				if (isIntegral(value)) {
+					return BigDecimal.valueOf(((Number) value).longValue());
+				}
+				else if (value instanceof BigInteger) {
+					return new BigDecimal((BigInteger) value);
+				}
+				else if (value instanceof Double || value instanceof Float) {
+					return BigDecimal.valueOf(((Number) value).doubleValue());
+				}
+				break;
+
+			case BIG_INTEGER:
+				if (isIntegral(value)) {
+					return BigInteger.valueOf(((Number) value).longValue());
+				}
+				else if (value instanceof BigDecimal) {
+					return ((BigDecimal) value).toBigInteger();
+				}
+				break;
+
+			case TIMESTAMP:
+				if (value instanceof Date || value instanceof Calendar) {
+					return new Timestamp(getTime(value));
+				}
+				break;
+
+			case DATE:
+				if (value instanceof Date || value instanceof Calendar) {
+					return new java.sql.Date(getTime(value));
+				}
+				break;
+
+			case TIME:
+				if (value instanceof Date || value instanceof Calendar) {
+					return new Time(getTime(value));
+				}
+				break;
+
+			default:
+				break;
+		}
+
+		return dataType.typeCast(value);
+	}
+
+	private static Target getTarget(DataType dataType, Class<?> targetClass) {
+
+		if (dataType == DataType.UNKNOWN || targetClass == null || targetClass == Object.class) {
+			return Target.NONE;
+		}
+		else if (targetClass == String.class) {
+			return Target.STRING;
+		}
+		else if (targetClass == Integer.class) {
+			return Target.INTEGER;
+		}
+		else if (targetClass == Long.class) {
+			return Target.LONG;
+		}
+		else if (targetClass == Short.class) {
+			return Target.SHORT;
+		}
+		else if (targetClass == Byte.class) {
+			return Target.BYTE;
+		}
+		else if (targetClass == Double.class) {
+			return Target.DOUBLE;
+		}
+		else if (targetClass == Float.class) {
+			return Target.FLOAT;
+		}
+		else if (targetClass == BigDecimal.class) {
+			return Target.BIG_DECIMAL;
+		}
+		else if (targetClass == BigInteger.class) {
+			return Target.BIG_INTEGER;
+		}
+		else if (targetClass == Timestamp.class) {
+			return Target.TIMESTAMP;
+		}
+		else if (targetClass == java.sql.Date.class) {
+			return Target.DATE;
+		}
+		else if (targetClass == Time.class) {
+			return Target.TIME;
+		}
+
+		return Target.OTHER;
+	}
+
+	private static boolean isIntegral(Object value) {
+
+		return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+	}
+
+	private static long getTime(Object value) {
+
+		return value instanceof Date ? ((Date) value).getTime() : ((Calendar) value).getTimeInMillis();
+	}
+}
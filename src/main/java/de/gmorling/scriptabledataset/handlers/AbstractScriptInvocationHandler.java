@@ -0,0 +1,57 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset.handlers;
+
+import javax.script.ScriptEngine;
+
+/**
+ * A base class for {@link ScriptInvocationHandler}s, which returns scripts and
+ * results unchanged. Implementations only need to override the phase they
+ * are interested in. A phase not overridden is skipped altogether when
+ * evaluating scripts, so such a handler doesn't cost anything in that phase.
+ * 
+ * @author Gunnar Morling
+ */
+public abstract class AbstractScriptInvocationHandler implements ScriptInvocationHandler {
+
+	private ScriptEngine engine;
+
+	public String preInvoke(String script) {
+
+		return script;
+	}
+
+	public Object postInvoke(Object object) {
+
+		return object;
+	}
+
+	public void setScriptEngine(ScriptEngine engine) {
+
+		this.engine = engine;
+	}
+
+	/**
+	 * Returns the scripting engine set by
+	 * {@link #setScriptEngine(ScriptEngine)}.
+	 * 
+	 * @return The scripting engine used to execute the current script.
+	 */
+	protected ScriptEngine getScriptEngine() {
+
+		return engine;
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset.handlers;
+
+import java.util.List;
+
+/**
+ * <p>
+ * A handler, that allows to evaluate the scripts of several fields with one
+ * engine invocation. Batch evaluation will be used for all configurations
+ * whose handlers contain a batch handler.
+ * </p>
+ * <p>
+ * When evaluating a batch, the handlers preceding the batch handler are
+ * applied to each script separately. The batch handler then combines these
+ * scripts into one script, to which all subsequent handlers are applied.
+ * After evaluation, the subsequent handlers post-process the combined result,
+ * the batch handler splits it into the results of the single scripts, and
+ * the preceding handlers post-process each of these results.
+ * </p>
+ * <p>
+ * When evaluating a single script, a batch handler acts like any other
+ * handler.
+ * </p>
+ * 
+ * @author Gunnar Morling
+ */
+public interface BatchScriptInvocationHandler extends ScriptInvocationHandler {
+
+	/**
+	 * Combines several scripts into one script, which evaluates to the results
+	 * of all given scripts.
+	 * 
+	 * @param scripts
+	 *            The scripts to be combined.
+	 * @return A script evaluating to the results of all given scripts.
+	 */
+	String preInvokeBatch(List<String> scripts);
+
+	/**
+	 * Splits the result of a script created by
+	 * {@link #preInvokeBatch(List)} into the results of the single scripts.
+	 * 
+	 * @param object
+	 *            The result of the combined script.
+	 * @return A list with the results of the single scripts, in the order of
+	 *         the scripts passed to {@link #preInvokeBatch(List)}.
+	 */
+	List<Object> postInvokeBatch(Object object);
+}
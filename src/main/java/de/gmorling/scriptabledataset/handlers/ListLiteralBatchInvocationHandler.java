@@ -0,0 +1,84 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset.handlers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * A {@link BatchScriptInvocationHandler} for languages with list literals of
+ * the form "[a, b, c]", such as Groovy or Ruby. The scripts of a batch are
+ * enclosed in parentheses and combined into a list literal. Single scripts
+ * and their results are passed through, so this handler is skipped when
+ * evaluating single scripts.
+ * 
+ * @author Gunnar Morling
+ */
+public class ListLiteralBatchInvocationHandler extends AbstractScriptInvocationHandler implements BatchScriptInvocationHandler {
+
+	private final String languageName;
+
+	/**
+	 * Creates a new ListLiteralBatchInvocationHandler.
+	 * 
+	 * @param languageName
+	 *            The name of the scripting language, e.g. "groovy". May not be
+	 *            null.
+	 */
+	public ListLiteralBatchInvocationHandler(String languageName) {
+
+		Validate.notNull(languageName);
+
+		this.languageName = languageName;
+	}
+
+	public String getLanguageName() {
+
+		return languageName;
+	}
+
+	public String preInvokeBatch(List<String> scripts) {
+
+		StringBuilder theValue = new StringBuilder("[");
+
+		for (int i = 0; i < scripts.size(); i++) {
+
+			if (i > 0) {
+				theValue.append(", ");
+			}
+
+			theValue.append("(").append(scripts.get(i)).append(")");
+		}
+
+		return theValue.append("]").toString();
+	}
+
+	public List<Object> postInvokeBatch(Object object) {
+
+		if (object instanceof Collection<?>) {
+			return new ArrayList<Object>((Collection<?>) object);
+		}
+		else if (object instanceof Object[]) {
+			return Arrays.asList((Object[]) object);
+		}
+
+		throw new IllegalArgumentException("Batch result must be a collection or an array, but was " + object + ".");
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset.handlers;
+
+/**
+ * <p>
+ * A marker for handlers, whose <code>preInvoke()</code> method doesn't change
+ * the value of scripts consisting of literals only, e.g. as it merely adds
+ * imports to each script.
+ * </p>
+ * <p>
+ * If simple expressions shall be interpreted without the scripting engine,
+ * such handlers are skipped for these expressions. The scripts processed by
+ * all other handlers are interpreted, if they are simple expressions. See
+ * {@link de.gmorling.scriptabledataset.ScriptableDataSetConfig#setInterpretSimpleExpressions(boolean)}.
+ * </p>
+ * 
+ * @author Gunnar Morling
+ */
+public interface LiteralPreservingInvocationHandler extends ScriptInvocationHandler {
+
+}
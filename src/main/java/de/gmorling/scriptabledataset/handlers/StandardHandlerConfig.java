@@ -15,6 +15,7 @@
  */
 package de.gmorling.scriptabledataset.handlers;
 
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -32,6 +33,12 @@ import org.slf4j.LoggerFactory;
  * These standard handlers will be called <b>before</b> any custom handlers in
  * the pre invocation and <b>after</b> any custom handlers in the post
  * invocation.
+ * <p>
+ * Each scriptable data set obtains its own instances of the standard handlers
+ * via {@link #createStandardHandlersByLanguage(String)}, so the script engine
+ * passed to a handler isn't overwritten by other data sets, possibly used by
+ * other threads.
+ * </p>
  * 
  * @author Gunnar Morling
  */
@@ -78,4 +85,56 @@ public class StandardHandlerConfig {
 			return Collections.emptyList();
 		}
 	}
+
+	/**
+	 * Creates new instances of all standard handlers registered for the given
+	 * language, using their default constructors.
+	 * 
+	 * @param language
+	 *            The name of a scripting language.
+	 * @return A list with new handler instances. Never null.
+	 */
+	public static List<ScriptInvocationHandler> createStandardHandlersByLanguage(String language) {
+
+		List<ScriptInvocationHandler> theValue = new ArrayList<ScriptInvocationHandler>();
+
+		for (ScriptInvocationHandler oneHandler : getStandardHandlersByLanguage(language)) {
+
+			theValue.add(newInstance(oneHandler.getClass()));
+		}
+
+		return theValue;
+	}
+
+	/**
+	 * Creates a new instance of the given handler type using its default
+	 * constructor. Exceptions thrown by the constructor itself are propagated
+	 * unwrapped, if they are unchecked.
+	 */
+	private static ScriptInvocationHandler newInstance(Class<? extends ScriptInvocationHandler> handlerType) {
+
+		try {
+			return handlerType.getDeclaredConstructor().newInstance();
+		}
+		catch (NoSuchMethodException e) {
+			throw new RuntimeException("Standard handler " + handlerType.getName() + " has no default constructor.", e);
+		}
+		catch (InvocationTargetException e) {
+
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+
+			throw new RuntimeException("Couldn't instantiate standard handler " + handlerType.getName() + ".", e.getCause());
+		}
+		catch (InstantiationException e) {
+			throw new RuntimeException("Couldn't instantiate standard handler " + handlerType.getName() + ".", e);
+		}
+		catch (IllegalAccessException e) {
+			throw new RuntimeException("Default constructor of standard handler " + handlerType.getName() + " isn't accessible.", e);
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DefaultTable;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.dbunit.dataset.datatype.DataType;
+import org.dbunit.dataset.stream.StreamingDataSet;
+import org.dbunit.dataset.xml.FlatXmlProducer;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+/**
+ * Test for ColumnClassification.
+ * 
+ * @author Gunnar Morling
+ * 
+ */
+public class ColumnClassificationTest {
+
+	private ScriptableDataSetConfig groovy = new ScriptableDataSetConfig("groovy", "groovy:");
+
+	private ScriptableDataSetConfig jruby = new ScriptableDataSetConfig("jruby", "jruby:");
+
+	private ScriptPrefixTrie prefixes = new ScriptPrefixTrie(Arrays.asList(groovy, jruby));
+
+	/**
+	 * Test, that columns without scripts are classified as literal and columns
+	 * with scripts and literals as mixed.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void literalAndMixedColumns() throws Exception {
+
+		DefaultTable table = new DefaultTable("location", new Column[] { new Column("num", DataType.UNKNOWN), new Column("addr", DataType.UNKNOWN) });
+		table.addRow(new Object[] { 1, "groovy:'Webster Street'" });
+		table.addRow(new Object[] { "2", "Main Street" });
+		table.addRow(new Object[] { null, "jruby:'Elm Street'" });
+
+		ColumnClassification literal = ColumnClassification.classify(table, "num", prefixes);
+
+		assertEquals(ColumnClassification.Kind.LITERAL, literal.getKind());
+		assertNull(literal.getConfig(0));
+
+		ColumnClassification mixed = ColumnClassification.classify(table, "addr", prefixes);
+
+		assertEquals(ColumnClassification.Kind.MIXED, mixed.getKind());
+		assertSame(groovy, mixed.getConfig(0));
+		assertNull(mixed.getConfig(1));
+		assertSame(jruby, mixed.getConfig(2));
+		assertNull(mixed.getConfig(3));
+	}
+
+	/**
+	 * Test, that the fields of a streamed table aren't examined in advance.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void streamedTable() throws Exception {
+
+		ITableIterator iterator = new StreamingDataSet(
+			new FlatXmlProducer(new InputSource(ColumnClassificationTest.class.getResourceAsStream("groovy.xml")))).iterator();
+		iterator.next();
+
+		ITable table = iterator.getTable();
+		ColumnClassification classification = ColumnClassification.classify(table, "addr", prefixes);
+
+		assertEquals(ColumnClassification.Kind.UNEXAMINED, classification.getKind());
+		assertNull(classification.getConfig(0));
+		assertEquals("groovy:'Webster Street'.reverse()", table.getValue(0, "addr"));
+	}
+}
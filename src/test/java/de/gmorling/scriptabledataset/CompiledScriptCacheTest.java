@@ -0,0 +1,94 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+import org.junit.Test;
+
+import de.gmorling.scriptabledataset.ScriptEvaluationEvent.EvaluationPath;
+
+/**
+ * Test for CompiledScriptCache.
+ * 
+ * @author Gunnar Morling
+ * 
+ */
+public class CompiledScriptCacheTest {
+
+	private ScriptEngine engine = new ScriptEngineManager().getEngineByName("groovy");
+
+	/**
+	 * Test, that the least recently used script is evicted, if the cache is
+	 * full.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void leastRecentlyUsedScriptIsEvicted() throws Exception {
+
+		CompiledScriptCache cache = new CompiledScriptCache(engine, 2);
+
+		assertEquals(2, cache.eval("1+1"));
+		assertEquals(4, cache.eval("2+2"));
+
+		CompiledScript onePlusOne = cache.get("1+1");
+		CompiledScript twoPlusTwo = cache.get("2+2");
+
+		ScriptEvaluationEvent event = new ScriptEvaluationEvent("location", 0, "addr", null);
+		assertEquals(2, cache.eval("1+1", event));
+		assertEquals(EvaluationPath.COMPILED_SCRIPT_CACHE_HIT, event.getEvaluationPath());
+
+		assertEquals(6, cache.eval("3+3"));
+
+		assertEquals(2, cache.size());
+		assertNull(cache.get("2+2"));
+		assertSame(onePlusOne, cache.get("1+1"));
+
+		// "2+2" was evicted, so it is compiled again, evicting "3+3"
+		event = new ScriptEvaluationEvent("location", 0, "addr", null);
+		assertEquals(4, cache.eval("2+2", event));
+		assertEquals(EvaluationPath.COMPILED_SCRIPT_CACHE_MISS, event.getEvaluationPath());
+		assertNotSame(twoPlusTwo, cache.get("2+2"));
+
+		assertEquals(2, cache.size());
+		assertNull(cache.get("3+3"));
+		assertSame(onePlusOne, cache.get("1+1"));
+	}
+
+	/**
+	 * Test, that scripts are evaluated directly, if the cache is disabled.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void disabledCache() throws Exception {
+
+		CompiledScriptCache cache = new CompiledScriptCache(engine, 0);
+
+		assertEquals(2, cache.eval("1+1"));
+		assertEquals(0, cache.size());
+	}
+}
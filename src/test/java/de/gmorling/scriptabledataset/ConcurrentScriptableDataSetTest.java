@@ -0,0 +1,234 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.script.ScriptEngine;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.DefaultTable;
+import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.datatype.DataType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.gmorling.scriptabledataset.handlers.ScriptInvocationHandler;
+
+/**
+ * Stress test for the concurrent usage of scriptable data sets.
+ * 
+ * @author Gunnar Morling
+ * 
+ */
+public class ConcurrentScriptableDataSetTest {
+
+	private static final int THREADS = 8;
+
+	private static final int ROWS = 200;
+
+	private static final int ITERATIONS = 3;
+
+	private ExecutorService executor;
+
+	private ScriptableDataSetConfig config;
+
+	@Before
+	public void setUp() {
+
+		executor = Executors.newFixedThreadPool(THREADS);
+
+		List<ScriptInvocationHandler> handlers = new ArrayList<ScriptInvocationHandler>();
+		handlers.add(new SuffixAddingInvocationHandler("1", true));
+		handlers.add(new SuffixAddingInvocationHandler("2", false));
+
+		config = new ScriptableDataSetConfig("groovy", "groovy:", handlers);
+	}
+
+	@After
+	public void tearDown() {
+
+		executor.shutdown();
+	}
+
+	/**
+	 * Test for reading one data set by several threads at once.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void sharedDataSet() throws Exception {
+
+		final IDataSet dataSet = createDataSet();
+
+		runConcurrently(new Callable<Void>() {
+
+			public Void call() throws Exception {
+				assertTable(dataSet.getTable("location"));
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Test for reading several data sets with the same configuration by
+	 * several threads at once.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void dataSetPerThread() throws Exception {
+
+		runConcurrently(new Callable<Void>() {
+
+			public Void call() throws Exception {
+				assertTable(createDataSet().getTable("location"));
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Test, that the wrapped table is read by one thread at a time, when
+	 * pre-evaluation tasks access other columns through the row binding.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void preEvaluationWithRowBinding() throws Exception {
+
+		final AtomicInteger readers = new AtomicInteger();
+
+		DefaultTable table = new DefaultTable("location", new Column[] { new Column("num", DataType.INTEGER), new Column("addr", DataType.VARCHAR) }) {
+
+			@Override
+			public Object getValue(int row, String column) throws DataSetException {
+
+				if (readers.incrementAndGet() != 1) {
+					throw new IllegalStateException("Concurrent read of row " + row + ".");
+				}
+
+				try {
+					Thread.yield();
+					return super.getValue(row, column);
+				}
+				finally {
+					readers.decrementAndGet();
+				}
+			}
+		};
+
+		for (int i = 0; i < ROWS; i++) {
+			table.addRow(new Object[] { i, "groovy:'Street ' + row.NUM" });
+		}
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(new DefaultDataSet(table), new ScriptableDataSetConfig("groovy", "groovy:"));
+		dataSet.setPreEvaluationExecutor(executor);
+		dataSet.setPreEvaluationChunkSize(10);
+
+		ITable scriptableTable = dataSet.getTable("location");
+
+		for (int i = 0; i < ROWS; i++) {
+			assertEquals("Street " + i, scriptableTable.getValue(i, "addr"));
+		}
+	}
+
+	private void runConcurrently(Callable<Void> task) throws Exception {
+
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+		for (int i = 0; i < THREADS * ITERATIONS; i++) {
+			futures.add(executor.submit(task));
+		}
+
+		// propagates any assertion error
+		for (Future<Void> oneFuture : futures) {
+			oneFuture.get();
+		}
+	}
+
+	private IDataSet createDataSet() throws Exception {
+
+		DefaultTable table = new DefaultTable("location", new Column[] { new Column("addr", DataType.VARCHAR) });
+
+		for (int i = 0; i < ROWS; i++) {
+			table.addRow(new Object[] { i % 2 == 0 ? "groovy:'Street ' + " + i : "Street " + i });
+		}
+
+		return new ScriptableDataSet(new DefaultDataSet(table), config);
+	}
+
+	private void assertTable(ITable table) throws Exception {
+
+		for (int i = 0; i < ROWS; i++) {
+			assertEquals(i % 2 == 0 ? "[Street " + i + "]21" : "Street " + i, table.getValue(i, "addr"));
+		}
+	}
+
+	/**
+	 * Optionally wraps scripts in brackets and appends a suffix to results, so
+	 * the order of handler invocations is reflected in the results.
+	 */
+	private static class SuffixAddingInvocationHandler implements ScriptInvocationHandler {
+
+		private final String suffix;
+
+		private final boolean addBrackets;
+
+		private ScriptEngine engine;
+
+		SuffixAddingInvocationHandler(String suffix, boolean addBrackets) {
+			this.suffix = suffix;
+			this.addBrackets = addBrackets;
+		}
+
+		public String getLanguageName() {
+			return "groovy";
+		}
+
+		public String preInvoke(String script) {
+
+			if (engine == null) {
+				throw new IllegalStateException("No engine set.");
+			}
+
+			return addBrackets ? "'[' + (" + script + ") + ']'" : script;
+		}
+
+		public Object postInvoke(Object object) {
+			return object + suffix;
+		}
+
+		public void setScriptEngine(ScriptEngine engine) {
+			this.engine = engine;
+		}
+	}
+}
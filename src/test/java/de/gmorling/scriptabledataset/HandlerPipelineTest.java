@@ -0,0 +1,124 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+import org.junit.Test;
+
+import de.gmorling.scriptabledataset.handlers.AbstractScriptInvocationHandler;
+import de.gmorling.scriptabledataset.handlers.ScriptInvocationHandler;
+
+/**
+ * Test for HandlerPipeline.
+ * 
+ * @author Gunnar Morling
+ * 
+ */
+public class HandlerPipelineTest {
+
+	private ScriptEngine engine = new ScriptEngineManager().getEngineByName("groovy");
+
+	/**
+	 * Test, that preInvoke is called in the order of the handlers and
+	 * postInvoke in reversed order, also when invoked repeatedly.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void handlerOrder() throws Exception {
+
+		List<ScriptInvocationHandler> handlers = new ArrayList<ScriptInvocationHandler>();
+		handlers.add(new AppendingHandler("a"));
+		handlers.add(new AppendingHandler("b"));
+
+		HandlerPipeline pipeline = new HandlerPipeline(new ScriptableDataSetConfig("groovy", "groovy:", handlers), engine);
+
+		for (int i = 0; i < 2; i++) {
+			assertEquals("script a b", pipeline.preInvoke("script"));
+			assertEquals("result b a", pipeline.postInvoke("result"));
+		}
+	}
+
+	/**
+	 * Test, that handlers not overriding a method of
+	 * AbstractScriptInvocationHandler are skipped in that phase.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void passThroughHandlersAreSkipped() throws Exception {
+
+		PassThroughHandler passThrough = new PassThroughHandler();
+		AppendingHandler appending = new AppendingHandler("a");
+
+		HandlerPipeline pipeline = new HandlerPipeline(
+			new ScriptableDataSetConfig("groovy", "groovy:", Arrays.<ScriptInvocationHandler> asList(passThrough, appending)), engine);
+
+		assertEquals("script a", pipeline.preInvoke("script"));
+		assertEquals("result a", pipeline.postInvoke("result"));
+
+		// custom handlers are bound to the engine upon each invocation
+		assertNull(passThrough.getEngine());
+		assertSame(engine, appending.getEngine());
+	}
+
+	private static class PassThroughHandler extends AbstractScriptInvocationHandler {
+
+		public String getLanguageName() {
+
+			return "groovy";
+		}
+
+		ScriptEngine getEngine() {
+
+			return getScriptEngine();
+		}
+	}
+
+	private static class AppendingHandler extends PassThroughHandler {
+
+		private final String suffix;
+
+		AppendingHandler(String suffix) {
+
+			this.suffix = suffix;
+		}
+
+		@Override
+		public String preInvoke(String script) {
+
+			return script + " " + suffix;
+		}
+
+		@Override
+		public Object postInvoke(Object object) {
+
+			return object + " " + suffix;
+		}
+	}
+}
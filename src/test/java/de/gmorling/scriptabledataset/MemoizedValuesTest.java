@@ -0,0 +1,125 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import org.apache.commons.lang.StringUtils;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DefaultTableMetaData;
+import org.dbunit.dataset.datatype.DataType;
+import org.junit.Test;
+
+/**
+ * Test for MemoizedValues.
+ * 
+ * @author Gunnar Morling
+ * 
+ */
+public class MemoizedValuesTest {
+
+	private static final int ROW_COUNT = 16;
+
+	/**
+	 * Test, that values memoized in columnar mode are read as objects equal to
+	 * and of the same class as the memoized ones.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void columnarValues() throws Exception {
+
+		Timestamp timestamp = new Timestamp(1234567890123L);
+		timestamp.setNanos(123456789);
+
+		Object[][] columns = new Object[][] {
+			{ "bigint", DataType.BIGINT, 42L, Long.MIN_VALUE, null, "not a long" },
+			{ "integer", DataType.INTEGER, 42, -1, 42L },
+			{ "double", DataType.DOUBLE, 1.5d, Double.NaN, -0.0d },
+			{ "real", DataType.REAL, 1.5f },
+			{ "timestamp", DataType.TIMESTAMP, timestamp, new java.sql.Date(0), null },
+			{ "date", DataType.DATE, new java.sql.Date(86400000L) },
+			{ "varchar", DataType.VARCHAR, "Webster Street", "", "Stra\u00dfe \u20ac", null },
+			{ "numeric", DataType.NUMERIC, new BigDecimal("1.50") },
+			{ "unknown", DataType.UNKNOWN, 42L, "Street" } };
+
+		Column[] metaDataColumns = new Column[columns.length];
+
+		for (int i = 0; i < columns.length; i++) {
+			metaDataColumns[i] = new Column((String) columns[i][0], (DataType) columns[i][1]);
+		}
+
+		MemoizedValues memoizedValues = new MemoizedValues(ROW_COUNT, Integer.MAX_VALUE, new DefaultTableMetaData("location", metaDataColumns));
+
+		for (Object[] oneColumn : columns) {
+			for (int row = 0; row < ROW_COUNT; row++) {
+				memoizedValues.put(row, (String) oneColumn[0], getValue(oneColumn, row));
+			}
+		}
+
+		for (Object[] oneColumn : columns) {
+			for (int row = 0; row < ROW_COUNT; row++) {
+
+				Object expected = getValue(oneColumn, row);
+				Object actual = memoizedValues.get(row, (String) oneColumn[0]);
+
+				assertEquals(oneColumn[0] + "/" + row, expected, actual);
+				assertSame(oneColumn[0] + "/" + row, expected != null ? expected.getClass() : null, actual != null ? actual.getClass() : null);
+			}
+		}
+
+		assertEquals(columns.length * ROW_COUNT, memoizedValues.size());
+	}
+
+	/**
+	 * Test, that strings and byte arrays exceeding the initial size of the
+	 * off-heap buffer are memoized.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void largeOffHeapValues() throws Exception {
+
+		Column[] metaDataColumns = new Column[] { new Column("varchar", DataType.VARCHAR), new Column("varbinary", DataType.VARBINARY) };
+		MemoizedValues memoizedValues = new MemoizedValues(ROW_COUNT, Integer.MAX_VALUE, new DefaultTableMetaData("location", metaDataColumns));
+
+		for (int row = 0; row < ROW_COUNT; row++) {
+			memoizedValues.put(row, "varchar", StringUtils.repeat(row % 2 == 0 ? "a" : "\u00e4", 10000 * row));
+			memoizedValues.put(row, "varbinary", new byte[10000 * row]);
+		}
+
+		for (int row = 0; row < ROW_COUNT; row++) {
+			assertEquals(StringUtils.repeat(row % 2 == 0 ? "a" : "\u00e4", 10000 * row), memoizedValues.get(row, "varchar"));
+			assertArrayEquals(new byte[10000 * row], (byte[]) memoizedValues.get(row, "varbinary"));
+		}
+	}
+
+	/**
+	 * Returns the value of the given row, cycling through the values given
+	 * for the column.
+	 */
+	private Object getValue(Object[] column, int row) {
+
+		return column[2 + row % (column.length - 2)];
+	}
+}
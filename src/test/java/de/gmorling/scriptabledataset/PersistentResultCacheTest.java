@@ -0,0 +1,163 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for PersistentResultCache.
+ * 
+ * @author Gunnar Morling
+ * 
+ */
+public class PersistentResultCacheTest {
+
+	private ScriptableDataSetConfig config = new ScriptableDataSetConfig("groovy", "groovy:");
+
+	private ScriptEngineFactory factory = new ScriptEngineManager().getEngineByName("groovy").getFactory();
+
+	private File directory;
+
+	@Before
+	public void createDirectory() throws Exception {
+
+		directory = File.createTempFile("results", "");
+		directory.delete();
+	}
+
+	@After
+	public void deleteDirectory() {
+
+		new File(directory, PersistentResultCache.FILE_NAME).delete();
+		directory.delete();
+	}
+
+	/**
+	 * Test, that results of all supported types are read again by another
+	 * cache instance.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void resultsAreKeptAcrossInstances() throws Exception {
+
+		Timestamp timestamp = new Timestamp(1234567890123L);
+		timestamp.setNanos(123456789);
+
+		Object[] results = new Object[] { "x", 42, 42L, 1.5d, 1.5f, (short) 7, (byte) 8, true, 'c', new BigInteger("123456789012345678901234567890"), new BigDecimal("-12.345"), new Date(0), timestamp, new java.sql.Date(0), null };
+
+		PersistentResultCache cache = new PersistentResultCache(directory);
+
+		for (int i = 0; i < results.length; i++) {
+			cache.put(config, factory, "script" + i, results[i]);
+		}
+		cache.put(config, factory, "bytes", new byte[] { 1, 2, 3 });
+		cache.close();
+
+		cache = new PersistentResultCache(directory);
+
+		for (int i = 0; i < results.length; i++) {
+			assertEquals(results[i], cache.get(config, factory, "script" + i));
+		}
+		assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) cache.get(config, factory, "bytes"));
+		assertSame(PersistentResultCache.NOT_CACHED, cache.get(config, factory, "unknown"));
+	}
+
+	/**
+	 * Test, that results of unsupported types aren't cached.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void unsupportedResultsAreNotCached() throws Exception {
+
+		PersistentResultCache cache = new PersistentResultCache(directory);
+		cache.put(config, factory, "new Object()", new Object());
+
+		assertSame(PersistentResultCache.NOT_CACHED, cache.get(config, factory, "new Object()"));
+	}
+
+	/**
+	 * Test, that results of scripts referring to bindings aren't cached.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void scriptsWithBindingsAreNotCached() throws Exception {
+
+		PersistentResultCache cache = new PersistentResultCache(directory);
+		cache.put(config, factory, "row.ID * 1000 + rowIndex", 1000);
+		cache.put(config, factory, "'arrow'", "arrow");
+
+		assertSame(PersistentResultCache.NOT_CACHED, cache.get(config, factory, "row.ID * 1000 + rowIndex"));
+		assertEquals("arrow", cache.get(config, factory, "'arrow'"));
+	}
+
+	/**
+	 * Test, that a truncated last record is cut off, so results appended
+	 * afterwards can be read again.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void truncatedRecordIsCutOff() throws Exception {
+
+		File file = new File(directory, PersistentResultCache.FILE_NAME);
+
+		PersistentResultCache cache = new PersistentResultCache(directory);
+		cache.put(config, factory, "1", 1);
+		cache.close();
+
+		long length = file.length();
+
+		// a record aborted after its key and length
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		randomAccessFile.seek(length);
+		randomAccessFile.write(new byte[32]);
+		randomAccessFile.writeInt(100);
+		randomAccessFile.close();
+
+		cache = new PersistentResultCache(directory);
+		assertEquals(length, file.length());
+
+		cache.put(config, factory, "2", 2);
+		cache.close();
+
+		cache = new PersistentResultCache(directory);
+		assertEquals(1, cache.get(config, factory, "1"));
+		assertEquals(2, cache.get(config, factory, "2"));
+	}
+}
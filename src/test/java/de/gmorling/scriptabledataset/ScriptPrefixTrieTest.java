@@ -0,0 +1,64 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Test for ScriptPrefixTrie.
+ * 
+ * @author Gunnar Morling
+ * 
+ */
+public class ScriptPrefixTrieTest {
+
+	private ScriptableDataSetConfig g = new ScriptableDataSetConfig("groovy", "g:");
+
+	private ScriptableDataSetConfig groovy = new ScriptableDataSetConfig("groovy", "groovy:");
+
+	private ScriptableDataSetConfig jruby = new ScriptableDataSetConfig("jruby", "jruby:");
+
+	/**
+	 * Test, that the configuration with the longest matching prefix is
+	 * returned.
+	 */
+	@Test
+	public void longestMatch() {
+
+		ScriptPrefixTrie trie = new ScriptPrefixTrie(Arrays.asList(g, groovy, jruby));
+
+		assertSame(g, trie.getLongestMatch("g:1"));
+		assertSame(groovy, trie.getLongestMatch("groovy:1"));
+		assertSame(jruby, trie.getLongestMatch("jruby:1"));
+		assertNull(trie.getLongestMatch("groovy"));
+		assertNull(trie.getLongestMatch("Webster Street"));
+		assertNull(trie.getLongestMatch(null));
+	}
+
+	/**
+	 * Test, that a prefix may not be used by two configurations.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void duplicatePrefix() {
+
+		new ScriptPrefixTrie(Arrays.asList(groovy, new ScriptableDataSetConfig("jruby", "groovy:")));
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.datatype.DataType;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test for ScriptableDataSetLoader.
+ * 
+ * @author Gunnar Morling
+ * 
+ */
+public class ScriptableDataSetLoaderTest {
+
+	private static Connection connection;
+
+	@BeforeClass
+	public static void initializeConnection() throws Exception {
+
+		connection = DriverManager.getConnection("jdbc:derby:derbyTest;create=true");
+	}
+
+	@Before
+	public void createTables() throws Exception {
+
+		connection.createStatement().execute("create table parent(id int primary key, name varchar(40))");
+		connection.createStatement().execute("create table child(id int primary key, parent_id int references parent(id))");
+	}
+
+	@After
+	public void dropTables() throws Exception {
+
+		connection.setAutoCommit(true);
+		connection.createStatement().execute("drop table child");
+		connection.createStatement().execute("drop table parent");
+	}
+
+	@AfterClass
+	public static void closeConnection() throws Exception {
+
+		connection.close();
+	}
+
+	/**
+	 * Test, that all rows are inserted and committed in batches.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void load() throws Exception {
+
+		ScriptableDataSet dataSet = createDataSet(1000, 0, "groovy:'Name ' + rowIndex");
+
+		ScriptableDataSetLoader loader = new ScriptableDataSetLoader(connection);
+		loader.setBatchSize(64);
+		loader.setCommitInterval(128);
+
+		assertEquals(1000, loader.load(dataSet));
+		assertTrue(connection.getAutoCommit());
+
+		ResultSet resultSet = connection.createStatement().executeQuery("select id, name from parent order by id");
+
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(resultSet.next());
+			assertEquals(i + 1, resultSet.getInt(1));
+			assertEquals("Name " + i, resultSet.getString(2));
+		}
+
+		resultSet.close();
+	}
+
+	/**
+	 * Test, that the tables are inserted in the order of the data set, when
+	 * their rows are evaluated by an executor.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void loadWithExecutor() throws Exception {
+
+		ScriptableDataSet dataSet = createDataSet(500, 500, "groovy:'Name ' + rowIndex");
+
+		ScriptableDataSetLoader loader = new ScriptableDataSetLoader(connection);
+		loader.setBatchSize(50);
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		loader.setExecutor(executor);
+
+		try {
+			assertEquals(1000, loader.load(dataSet));
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		ResultSet resultSet = connection.createStatement().executeQuery("select count(*) from child");
+		resultSet.next();
+		assertEquals(500, resultSet.getInt(1));
+		resultSet.close();
+	}
+
+	/**
+	 * Test, that a failing script evaluated by the executor fails the loading.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void failingScript() throws Exception {
+
+		ScriptableDataSet dataSet = createDataSet(100, 0, "groovy:rowIndex < 60 ? 'Name' : new Object().foo()");
+
+		ScriptableDataSetLoader loader = new ScriptableDataSetLoader(connection);
+		loader.setBatchSize(10);
+
+		ExecutorService executor = Executors.newFixedThreadPool(1);
+		loader.setExecutor(executor);
+
+		try {
+			loader.load(dataSet);
+			fail("Loading should fail.");
+		}
+		catch (DataSetException e) {
+			// expected
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Test, that the rows inserted since the last commit are rolled back, if
+	 * a later row violates a constraint.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void constraintViolation() throws Exception {
+
+		Map<String, String> scripts = new HashMap<String, String>();
+		scripts.put("id", "groovy:rowIndex < 150 ? rowIndex + 1 : 1");
+		scripts.put("name", "groovy:'Name'");
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(
+			new DefaultDataSet(new GeneratedTable("parent", new Column[] { new Column("id", DataType.INTEGER), new Column("name", DataType.VARCHAR) }, 200, scripts)),
+			new ScriptableDataSetConfig("groovy", "groovy:"));
+
+		ScriptableDataSetLoader loader = new ScriptableDataSetLoader(connection);
+		loader.setBatchSize(50);
+		loader.setCommitInterval(100);
+
+		try {
+			loader.load(dataSet);
+			fail("Loading should fail.");
+		}
+		catch (SQLException e) {
+			// expected
+		}
+
+		assertTrue(connection.getAutoCommit());
+
+		ResultSet resultSet = connection.createStatement().executeQuery("select count(*) from parent");
+		resultSet.next();
+		assertEquals(100, resultSet.getInt(1));
+		resultSet.close();
+	}
+
+	private ScriptableDataSet createDataSet(int parentCount, int childCount, String nameScript) throws Exception {
+
+		Map<String, String> parentScripts = new HashMap<String, String>();
+		parentScripts.put("id", "groovy:rowIndex + 1");
+		parentScripts.put("name", nameScript);
+
+		Map<String, String> childScripts = new HashMap<String, String>();
+		childScripts.put("id", "groovy:rowIndex + 1");
+		childScripts.put("parent_id", "groovy:rowIndex % " + parentCount + " + 1");
+
+		ITable[] tables = new ITable[] {
+			new GeneratedTable("parent", new Column[] { new Column("id", DataType.INTEGER), new Column("name", DataType.VARCHAR) }, parentCount, parentScripts),
+			new GeneratedTable("child", new Column[] { new Column("id", DataType.INTEGER), new Column("parent_id", DataType.INTEGER) }, childCount, childScripts) };
+
+		return new ScriptableDataSet(new DefaultDataSet(tables), new ScriptableDataSetConfig("groovy", "groovy:"));
+	}
+}
@@ -16,22 +16,49 @@
 package de.gmorling.scriptabledataset;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.io.StringReader;
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.time.DateUtils;
 import org.dbunit.DatabaseUnitException;
 import org.dbunit.database.DatabaseConnection;
 import org.dbunit.database.IDatabaseConnection;
+import org.dbunit.dataset.AbstractDataSet;
+import org.dbunit.dataset.Column;
+import org.dbunit.dataset.DataSetException;
+import org.dbunit.dataset.DefaultDataSet;
+import org.dbunit.dataset.DefaultTable;
+import org.dbunit.dataset.DefaultTableIterator;
 import org.dbunit.dataset.IDataSet;
+import org.dbunit.dataset.ITable;
+import org.dbunit.dataset.ITableIterator;
+import org.dbunit.dataset.datatype.DataType;
+import org.dbunit.dataset.stream.StreamingDataSet;
+import org.dbunit.dataset.stream.StreamingIterator;
+import org.dbunit.dataset.xml.FlatXmlProducer;
 import org.dbunit.dataset.xml.FlatXmlDataSet;
 import org.dbunit.operation.DatabaseOperation;
 import org.junit.After;
@@ -39,8 +66,12 @@ import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.xml.sax.InputSource;
 
+import de.gmorling.scriptabledataset.ScriptEvaluationEvent.EvaluationPath;
+import de.gmorling.scriptabledataset.handlers.AbstractScriptInvocationHandler;
 import de.gmorling.scriptabledataset.handlers.JRubyImportAddingInvocationHandler;
+import de.gmorling.scriptabledataset.handlers.ListLiteralBatchInvocationHandler;
 import de.gmorling.scriptabledataset.handlers.ScriptInvocationHandler;
 
 /**
@@ -51,6 +82,12 @@ import de.gmorling.scriptabledataset.handlers.ScriptInvocationHandler;
  */
 public class ScriptableDataSetTest {
 
+	/**
+	 * Incremented by setup scripts, so tests can tell how many engines have
+	 * been created.
+	 */
+	public static final AtomicInteger SETUP_RUNS = new AtomicInteger();
+
 	private static Connection connection;
 
 	private static IDatabaseConnection dbUnitConnection;
@@ -124,6 +161,44 @@ public class ScriptableDataSetTest {
 		assertNextRow(resultSet, 6, "teertS retsbeW", addDaysToToday(-14));
 	}
 	
+	/**
+	 * Test for evaluating scripts of a streamed data set.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void streamingDataSet() throws Exception {
+
+		IDataSet dataSet = new StreamingDataSet(
+			new ScriptableDataSetProducer(
+				new FlatXmlProducer(new InputSource(ScriptableDataSetTest.class.getResourceAsStream("groovy.xml"))),
+				new ScriptableDataSetConfig("groovy", "groovy:")));
+
+		insertDataSetAndCreateResultSet(dataSet);
+
+		assertNextRow(resultSet, 6, "teertS retsbeW", addDaysToToday(-14));
+	}
+
+	/**
+	 * Test for wrapping a streamed data set, whose tables can be read only
+	 * once.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void wrappedStreamingDataSet() throws Exception {
+
+		IDataSet dataSet = new ScriptableDataSet(
+			new StreamingDataSet(new FlatXmlProducer(new InputSource(ScriptableDataSetTest.class.getResourceAsStream("groovy.xml")))),
+			new ScriptableDataSetConfig("groovy", "groovy:"));
+
+		insertDataSetAndCreateResultSet(dataSet);
+
+		assertNextRow(resultSet, 6, "teertS retsbeW", addDaysToToday(-14));
+	}
+
 	/**
 	 * Test for using JRuby and Groovy within one data set file.
 	 * 
@@ -182,6 +257,993 @@ public class ScriptableDataSetTest {
 		DatabaseOperation.INSERT.execute(dbUnitConnection, dataSet);
 	}
 	
+	/**
+	 * Test, that no engine is loaded for prefixes not used by the data set,
+	 * so configuring an unknown language doesn't fail.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void unusedUnknownScriptingEngine() throws Exception {
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(
+			new DefaultDataSet(createTable("groovy:1+1", "literal")),
+			new ScriptableDataSetConfig("unknown", "unknown:"),
+			new ScriptableDataSetConfig("groovy", "groovy:"));
+
+		assertEquals(2, dataSet.getTable("location").getValue(0, "addr"));
+	}
+
+	/**
+	 * Test, that scripted fields are evaluated only once, if memoization is
+	 * enabled.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void memoizedValues() throws Exception {
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(
+			new DefaultDataSet(createTable("groovy:new Object()", "literal")),
+			new ScriptableDataSetConfig("groovy", "groovy:"));
+		dataSet.setMemoizeValues(true);
+
+		ITable table = dataSet.getTable("location");
+
+		assertSame(table.getValue(0, "addr"), table.getValue(0, "addr"));
+		assertEquals("literal", table.getValue(1, "addr"));
+
+		Object memoizedValue = table.getValue(0, "addr");
+		((ScriptableTable) table).clearMemoizedValues();
+
+		assertFalse(memoizedValue == table.getValue(0, "addr"));
+	}
+
+	/**
+	 * Test for the parallel evaluation of all scripted fields of a table.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void preEvaluation() throws Exception {
+
+		Object[] addresses = new Object[100];
+		for (int i = 0; i < addresses.length; i++) {
+			addresses[i] = i % 3 == 0 ? "Street " + i : "groovy:'Street ' + " + i;
+		}
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(
+			new DefaultDataSet(createTable(addresses)),
+			new ScriptableDataSetConfig("groovy", "groovy:"));
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		dataSet.setPreEvaluationExecutor(executor);
+		dataSet.setPreEvaluationChunkSize(7);
+
+		try {
+			ITable table = dataSet.getTable("location");
+
+			for (int i = 0; i < addresses.length; i++) {
+				assertEquals("Street " + i, table.getValue(i, "addr"));
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that the forward and the reverse iterator share their tables, so
+	 * that a clean insert evaluates each scripted field only once.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void cleanInsertEvaluatesOnce() throws Exception {
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(
+			new DefaultDataSet(createTable("groovy:'Street ' + rowIndex", "groovy:'Street ' + rowIndex", "literal")),
+			new ScriptableDataSetConfig("groovy", "groovy:"));
+		dataSet.setMemoizeValues(true);
+
+		ScriptMetrics metrics = new ScriptMetrics();
+		dataSet.setEvaluationListener(metrics);
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		dataSet.setPreEvaluationExecutor(executor);
+
+		try {
+			DatabaseOperation.CLEAN_INSERT.execute(dbUnitConnection, dataSet);
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		assertEquals(2, metrics.getStatisticsByPrefix("groovy:").getCount());
+
+		ITableIterator iterator = dataSet.iterator();
+		iterator.next();
+		ITableIterator reverseIterator = dataSet.reverseIterator();
+		reverseIterator.next();
+
+		assertSame(iterator.getTable(), reverseIterator.getTable());
+		assertEquals(2, metrics.getStatisticsByPrefix("groovy:").getCount());
+
+		resultSet = connection.createStatement().executeQuery("SELECT addr FROM location ORDER BY addr");
+
+		for (String oneAddress : new String[] { "Street 0", "Street 1", "literal" }) {
+			assertTrue(resultSet.next());
+			assertEquals(oneAddress, resultSet.getString(1));
+		}
+
+		assertFalse(resultSet.next());
+	}
+
+	/**
+	 * Test, that only the scriptable table for the last returned instance of
+	 * a wrapped table is retained, until the data set is closed.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void scriptableTablesAreReleased() throws Exception {
+
+		final ITable[] instances = new ITable[] { createTable("groovy:'Street ' + rowIndex"), createTable("groovy:'Street ' + rowIndex") };
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(new AbstractDataSet() {
+
+			private int iterations = 0;
+
+			@Override
+			protected ITableIterator createIterator(boolean reversed) {
+				return new DefaultTableIterator(new ITable[] { instances[iterations++ % 2] });
+			}
+		}, new ScriptableDataSetConfig("groovy", "groovy:"));
+
+		ITable first = getFirstTable(dataSet);
+
+		assertNotSame(first, getFirstTable(dataSet));
+
+		// the first instance is returned again
+		ITable third = getFirstTable(dataSet);
+
+		assertNotSame(first, third);
+		assertEquals("Street 0", third.getValue(0, "addr"));
+
+		dataSet = new ScriptableDataSet(new DefaultDataSet(instances[0]), new ScriptableDataSetConfig("groovy", "groovy:"));
+		first = getFirstTable(dataSet);
+
+		assertSame(first, getFirstTable(dataSet));
+
+		dataSet.close();
+
+		assertNotSame(first, getFirstTable(dataSet));
+	}
+
+	/**
+	 * Test for collecting evaluation metrics.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void metrics() throws Exception {
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(
+			new DefaultDataSet(createTable("groovy:1+1", "groovy:1+1", "groovy:2+2", "literal")),
+			new ScriptableDataSetConfig("groovy", "groovy:"));
+		dataSet.setMemoizeValues(true);
+
+		ScriptMetrics metrics = new ScriptMetrics();
+		dataSet.setEvaluationListener(metrics);
+
+		ITable table = dataSet.getTable("location");
+
+		for (int i = 0; i < 2; i++) {
+			for (int row = 0; row < 4; row++) {
+				table.getValue(row, "addr");
+			}
+		}
+
+		assertEquals(3, metrics.getStatisticsByPrefix("groovy:").getCount());
+		assertEquals(2, metrics.getStatisticsByExpression("groovy:1+1").getCount());
+		assertEquals(1, metrics.getStatisticsByExpression("groovy:2+2").getCount());
+		assertEquals(1, metrics.getCompiledScriptCacheHits());
+		assertEquals(2, metrics.getCompiledScriptCacheMisses());
+		assertEquals(3, metrics.getMemoizedValueReads());
+	}
+
+	/**
+	 * Test, that fields are counted by the way in which they were evaluated.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void evaluationPaths() throws Exception {
+
+		ScriptableDataSetConfig groovyConfig = new ScriptableDataSetConfig("groovy", "groovy:");
+		groovyConfig.setInterpretSimpleExpressions(true);
+
+		ScriptableDataSetConfig javaScriptConfig = new ScriptableDataSetConfig("javascript", "javascript:");
+		javaScriptConfig.setCompiledScriptCacheSize(0);
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(
+			new DefaultDataSet(createTable("groovy:42", "groovy:[1].size()", "groovy:[1].size()", "javascript:'a'.length")),
+			groovyConfig,
+			javaScriptConfig);
+
+		ScriptMetrics metrics = new ScriptMetrics();
+		dataSet.setEvaluationListener(metrics);
+
+		ITable table = dataSet.getTable("location");
+
+		for (int row = 0; row < 4; row++) {
+			table.getValue(row, "addr");
+		}
+
+		assertEquals(1, metrics.getEvaluations(EvaluationPath.INTERPRETED));
+		assertEquals(1, metrics.getEvaluations(EvaluationPath.COMPILED_SCRIPT_CACHE_MISS));
+		assertEquals(1, metrics.getEvaluations(EvaluationPath.COMPILED_SCRIPT_CACHE_HIT));
+		assertEquals(1, metrics.getEvaluations(EvaluationPath.NOT_COMPILED));
+	}
+
+	/**
+	 * Test for evaluating the scripted fields of a column in batches.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void batchEvaluation() throws Exception {
+
+		Object[] addresses = new Object[10];
+		for (int i = 0; i < addresses.length; i++) {
+			addresses[i] = i == 5 ? "Street 5" : "groovy:'Street ' + " + i;
+		}
+
+		final List<Integer> batchSizes = new ArrayList<Integer>();
+
+		List<ScriptInvocationHandler> handlers = new ArrayList<ScriptInvocationHandler>();
+		handlers.add(new ListLiteralBatchInvocationHandler("groovy") {
+
+			@Override
+			public String preInvokeBatch(List<String> scripts) {
+
+				batchSizes.add(scripts.size());
+				return super.preInvokeBatch(scripts);
+			}
+		});
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(
+			new DefaultDataSet(createTable(addresses)),
+			new ScriptableDataSetConfig("groovy", "groovy:", handlers));
+		dataSet.setBatchSize(4);
+
+		ScriptMetrics metrics = new ScriptMetrics();
+		dataSet.setEvaluationListener(metrics);
+
+		ITable table = dataSet.getTable("location");
+
+		assertEquals(Arrays.asList(4, 4, 1), batchSizes);
+		assertEquals(9, metrics.getEvaluations(EvaluationPath.BATCH));
+
+		for (int i = 0; i < addresses.length; i++) {
+			assertEquals("Street " + i, table.getValue(i, "addr"));
+		}
+
+		assertEquals(3, batchSizes.size());
+	}
+
+	/**
+	 * Test for accessing the row being evaluated from a script.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void rowBindings() throws Exception {
+
+		DefaultTable location = new DefaultTable("location", new Column[] { new Column("num", DataType.INTEGER), new Column("addr", DataType.VARCHAR) });
+
+		for (int i = 1; i <= 3; i++) {
+			location.addRow(new Object[] { i, "groovy:tableName + ' ' + (row.NUM * 1000 + rowIndex)" });
+		}
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(
+			new DefaultDataSet(location),
+			new ScriptableDataSetConfig("groovy", "groovy:"));
+
+		ScriptMetrics metrics = new ScriptMetrics();
+		dataSet.setEvaluationListener(metrics);
+
+		ITable table = dataSet.getTable("location");
+
+		assertEquals("location 1000", table.getValue(0, "addr"));
+		assertEquals("location 2001", table.getValue(1, "addr"));
+		assertEquals("location 3002", table.getValue(2, "addr"));
+
+		// the script is compiled only once
+		assertEquals(1, metrics.getCompiledScriptCacheMisses());
+		assertEquals(2, metrics.getCompiledScriptCacheHits());
+	}
+
+	/**
+	 * Test for inserting a table generated by scripts.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void generatedTable() throws Exception {
+
+		Map<String, String> scripts = new HashMap<String, String>();
+		scripts.put("num", "groovy:rowIndex + 1");
+		scripts.put("addr", "groovy:'Street ' + row.NUM");
+		scripts.put("date", "groovy:new Date()");
+
+		Column[] columns = new Column[] { new Column("num", DataType.INTEGER), new Column("addr", DataType.VARCHAR), new Column("date", DataType.TIMESTAMP) };
+
+		IDataSet dataSet = new ScriptableDataSet(
+			new DefaultDataSet(new GeneratedTable("location", columns, 1000, scripts)),
+			new ScriptableDataSetConfig("groovy", "groovy:"));
+
+		ITableIterator iterator = dataSet.reverseIterator();
+		iterator.next();
+		assertEquals(1000, iterator.getTable().getRowCount());
+
+		insertDataSetAndCreateResultSet(dataSet);
+
+		for (int i = 1; i <= 1000; i++) {
+			assertNextRow(resultSet, i, "Street " + i, addDaysToToday(0));
+		}
+
+		assertFalse(resultSet.next());
+	}
+
+	/**
+	 * Test for converting script results into the types of their columns.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void coercion() throws Exception {
+
+		DefaultTable values = new DefaultTable("values", new Column[] {
+			new Column("int", DataType.INTEGER),
+			new Column("decimal", DataType.DECIMAL),
+			new Column("timestamp", DataType.TIMESTAMP),
+			new Column("string", DataType.VARCHAR),
+			new Column("unknown", DataType.UNKNOWN) });
+		values.addRow(new Object[] { "groovy:42L", "groovy:1.5d", "groovy:new Date(0)", "groovy:42", "groovy:42L" });
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(new DefaultDataSet(values), new ScriptableDataSetConfig("groovy", "groovy:"));
+		dataSet.setCoerceValues(true);
+
+		ITable table = dataSet.getTable("values");
+
+		assertEquals(Integer.valueOf(42), table.getValue(0, "int"));
+		assertEquals(new BigDecimal("1.5"), table.getValue(0, "decimal"));
+		assertEquals(new Timestamp(0), table.getValue(0, "timestamp"));
+		assertEquals("42", table.getValue(0, "string"));
+		assertEquals(Long.valueOf(42), table.getValue(0, "unknown"));
+	}
+
+	/**
+	 * Test for initializing an engine before the first script is evaluated.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void eagerInitialization() throws Exception {
+
+		ScriptableDataSetConfig config = new ScriptableDataSetConfig("groovy", "groovy:");
+		config.setEagerInitialization(true);
+		config.setWarmUpScripts(Arrays.asList("1"));
+		config.setPrecompileScripts(true);
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(
+			new DefaultDataSet(createTable("groovy:1+1", "groovy:2+2", "literal")),
+			config);
+
+		ScriptMetrics metrics = new ScriptMetrics();
+		dataSet.setEvaluationListener(metrics);
+
+		dataSet.awaitInitialization();
+
+		ITable table = dataSet.getTable("location");
+
+		assertEquals(2, table.getValue(0, "addr"));
+		assertEquals(4, table.getValue(1, "addr"));
+
+		// all scripts have been compiled in advance
+		assertEquals(2, metrics.getCompiledScriptCacheHits());
+		assertEquals(0, metrics.getCompiledScriptCacheMisses());
+	}
+
+	/**
+	 * Test, that reading a data set by one thread creates one engine, also
+	 * for languages whose engines are not thread-safe.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void singleEngineForSingleThread() throws Exception {
+
+		SETUP_RUNS.set(0);
+
+		ScriptableDataSetConfig config = new ScriptableDataSetConfig("javascript", "javascript:");
+		config.setSetupScripts(Arrays.asList("Packages.de.gmorling.scriptabledataset.ScriptableDataSetTest.SETUP_RUNS.incrementAndGet()"));
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(new DefaultDataSet(createTable("javascript:['a', 'b'].join('')", "javascript:['c', 'd'].join('')")), config);
+
+		ITable table = dataSet.getTable("location");
+
+		assertEquals("ab", table.getValue(0, "addr"));
+		assertEquals("cd", table.getValue(1, "addr"));
+		assertEquals(1, SETUP_RUNS.get());
+
+		dataSet.close();
+	}
+
+	/**
+	 * Test, that tables and iterators created with their own engines release
+	 * them when being closed.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void closeOwnEngines() throws Exception {
+
+		SETUP_RUNS.set(0);
+
+		ScriptableDataSetConfig config = new ScriptableDataSetConfig("groovy", "groovy:");
+		config.setSetupScripts(Arrays.asList("de.gmorling.scriptabledataset.ScriptableDataSetTest.SETUP_RUNS.incrementAndGet()"));
+
+		ScriptableTable table = new ScriptableTable(createTable("groovy:'a' * 2"), Arrays.asList(config));
+
+		assertEquals("aa", table.getValue(0, "addr"));
+		assertEquals(1, SETUP_RUNS.get());
+
+		// the engine is loaded again after closing
+		table.close();
+		assertEquals("aa", table.getValue(0, "addr"));
+		assertEquals(2, SETUP_RUNS.get());
+		table.close();
+
+		ScriptableIterator iterator = new ScriptableIterator(new DefaultTableIterator(new ITable[] { createTable("groovy:'b' * 2") }), Arrays.asList(config));
+		assertTrue(iterator.next());
+
+		ITable iteratedTable = iterator.getTable();
+		assertEquals("bb", iteratedTable.getValue(0, "addr"));
+		assertEquals(3, SETUP_RUNS.get());
+
+		iterator.close();
+		assertEquals("bb", iteratedTable.getValue(0, "addr"));
+		assertEquals(4, SETUP_RUNS.get());
+		iterator.close();
+	}
+
+	/**
+	 * Test for keeping the results of deterministic scripts across data sets.
+	 * No engine is created, if all results are found in the cache.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void persistentResultCache() throws Exception {
+
+		File directory = File.createTempFile("results", "");
+		directory.delete();
+
+		SETUP_RUNS.set(0);
+
+		try {
+			for (int i = 0; i < 2; i++) {
+
+				ScriptableDataSetConfig config = new ScriptableDataSetConfig("groovy", "groovy:");
+				config.setDeterministic(true);
+				config.setSetupScripts(Arrays.asList("de.gmorling.scriptabledataset.ScriptableDataSetTest.SETUP_RUNS.incrementAndGet()"));
+
+				ScriptableDataSet dataSet = new ScriptableDataSet(new DefaultDataSet(createTable("groovy:'x' * 3", "literal")), config);
+				dataSet.setResultCacheDirectory(directory);
+
+				ScriptMetrics metrics = new ScriptMetrics();
+				dataSet.setEvaluationListener(metrics);
+
+				assertEquals("xxx", dataSet.getTable("location").getValue(0, "addr"));
+				dataSet.close();
+
+				// evaluated in the first run only
+				assertEquals(i == 0, metrics.getStatisticsByPrefix("groovy:") != null);
+				assertEquals(i, metrics.getEvaluations(EvaluationPath.PERSISTENT_RESULT_CACHE_HIT));
+				assertEquals(1, SETUP_RUNS.get());
+			}
+		}
+		finally {
+			new File(directory, PersistentResultCache.FILE_NAME).delete();
+			directory.delete();
+		}
+	}
+
+	/**
+	 * Test, that deterministic scripts depending on the row being evaluated
+	 * yield the result of their own row.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void rowDependentDeterministicScript() throws Exception {
+
+		File directory = File.createTempFile("results", "");
+		directory.delete();
+
+		try {
+			ScriptableDataSetConfig config = new ScriptableDataSetConfig("groovy", "groovy:");
+			config.setDeterministic(true);
+
+			DefaultTable table = new DefaultTable("location", new Column[] { new Column("num", DataType.INTEGER), new Column("addr", DataType.VARCHAR) });
+			table.addRow(new Object[] { 1, "groovy:row.NUM * 1000 + rowIndex" });
+			table.addRow(new Object[] { 2, "groovy:row.NUM * 1000 + rowIndex" });
+
+			ScriptableDataSet dataSet = new ScriptableDataSet(new DefaultDataSet(table), config);
+			dataSet.setResultCacheDirectory(directory);
+
+			ITable scriptableTable = dataSet.getTable("location");
+
+			assertEquals(1000, scriptableTable.getValue(0, "addr"));
+			assertEquals(2001, scriptableTable.getValue(1, "addr"));
+			dataSet.close();
+		}
+		finally {
+			new File(directory, PersistentResultCache.FILE_NAME).delete();
+			directory.delete();
+		}
+	}
+
+	/**
+	 * Test for sharing state between the fields of a data set and of a table.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void setupScriptsAndTableVariables() throws Exception {
+
+		ScriptableDataSetConfig config = new ScriptableDataSetConfig("groovy", "groovy:");
+		config.setSetupScripts(Arrays.asList("names = ['Anna', 'Bob']"));
+
+		Map<String, String> tableVariables = new HashMap<String, String>();
+		tableVariables.put("counter", "new java.util.concurrent.atomic.AtomicInteger()");
+		config.setTableVariables(tableVariables);
+
+		DefaultTable location = new DefaultTable("location", new Column[] { new Column("addr", DataType.VARCHAR) });
+		DefaultTable person = new DefaultTable("person", new Column[] { new Column("name", DataType.VARCHAR) });
+
+		for (int i = 0; i < 3; i++) {
+			location.addRow(new Object[] { "groovy:counter.incrementAndGet() + ' ' + names[rowIndex % 2]" });
+			person.addRow(new Object[] { "groovy:counter.incrementAndGet() + ' ' + tableName" });
+		}
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(new DefaultDataSet(new ITable[] { location, person }), config);
+
+		ITable table = dataSet.getTable("location");
+
+		assertEquals("1 Anna", table.getValue(0, "addr"));
+		assertEquals("2 Bob", table.getValue(1, "addr"));
+		assertEquals("3 Anna", table.getValue(2, "addr"));
+
+		// each table has its own counter
+		table = dataSet.getTable("person");
+
+		assertEquals("1 person", table.getValue(0, "name"));
+		assertEquals("2 person", table.getValue(1, "name"));
+	}
+
+	/**
+	 * Test for the built-in languages seq, uuid and now. Sequences and time
+	 * stamps depend on the row only, not on the order of evaluation.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void builtInLanguages() throws Exception {
+
+		DefaultTable values = new DefaultTable("values", new Column[] { new Column("id", DataType.BIGINT), new Column("code", DataType.VARCHAR), new Column("created", DataType.TIMESTAMP), new Column("updated", DataType.TIMESTAMP) });
+
+		for (int i = 0; i < 3; i++) {
+			values.addRow(new Object[] { "seq:100,10", "uuid:", "now:-1d", "now:-1d,1h" });
+		}
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(
+			new DefaultDataSet(values),
+			new ScriptableDataSetConfig("seq", "seq:"),
+			new ScriptableDataSetConfig("uuid", "uuid:"),
+			new ScriptableDataSetConfig("now", "now:"));
+
+		ITable table = dataSet.getTable("values");
+
+		assertEquals(120L, table.getValue(2, "id"));
+		assertEquals(100L, table.getValue(0, "id"));
+		assertEquals(100L, table.getValue(0, "id"));
+		assertEquals(110L, table.getValue(1, "id"));
+
+		assertEquals(36, ((String) table.getValue(0, "code")).length());
+		assertFalse(table.getValue(0, "code").equals(table.getValue(1, "code")));
+
+		Timestamp created = (Timestamp) table.getValue(0, "created");
+
+		assertEquals(DateUtils.truncate(addDaysToToday(-1), Calendar.DATE), DateUtils.truncate(created, Calendar.DATE));
+		assertEquals(created, table.getValue(2, "created"));
+		assertEquals(created, table.getValue(0, "updated"));
+		assertEquals(created.getTime() + 2 * 60 * 60 * 1000, ((Timestamp) table.getValue(2, "updated")).getTime());
+	}
+
+	/**
+	 * Test, that the results of interpreted simple expressions are processed
+	 * by the handlers like those of other scripts.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void interpretedSimpleExpressions() throws Exception {
+
+		List<ScriptInvocationHandler> handlers = new ArrayList<ScriptInvocationHandler>();
+		handlers.add(new AbstractScriptInvocationHandler() {
+
+			public String getLanguageName() {
+				return "groovy";
+			}
+
+			@Override
+			public Object postInvoke(Object object) {
+				return "<" + object + ">";
+			}
+		});
+
+		ScriptableDataSetConfig config = new ScriptableDataSetConfig("groovy", "groovy:", handlers);
+		config.setInterpretSimpleExpressions(true);
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(
+			new DefaultDataSet(createTable("groovy:42*1024", "groovy:'Street ' + rowIndex")),
+			config);
+
+		ITable table = dataSet.getTable("location");
+
+		assertEquals("<43008>", table.getValue(0, "addr"));
+		assertEquals("<Street 1>", table.getValue(1, "addr"));
+	}
+
+	/**
+	 * Test, that simple expressions are interpreted, if a batch handler is
+	 * configured, as it doesn't process single scripts.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void simpleExpressionWithBatchHandler() throws Exception {
+
+		ScriptableDataSetConfig config = new ScriptableDataSetConfig("groovy", "groovy:", Arrays.<ScriptInvocationHandler> asList(new ListLiteralBatchInvocationHandler("groovy")));
+		config.setInterpretSimpleExpressions(true);
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(new DefaultDataSet(createTable("groovy:42*1024")), config);
+
+		ScriptMetrics metrics = new ScriptMetrics();
+		dataSet.setEvaluationListener(metrics);
+
+		assertEquals(43008, dataSet.getTable("location").getValue(0, "addr"));
+		assertEquals(1, metrics.getEvaluations(EvaluationPath.INTERPRETED));
+	}
+
+	/**
+	 * Test, that simple expressions are interpreted with the standard handlers
+	 * of each language, which don't rewrite literals.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void simpleExpressionWithStandardHandlers() throws Exception {
+
+		String[] languages = { "groovy", "jruby", "javascript" };
+		String[] scripts = { "groovy:42*1024", "jruby:42*1024", "javascript:'a' + 'b'" };
+		Object[] values = { 43008, 43008L, "ab" };
+
+		for (int i = 0; i < languages.length; i++) {
+
+			ScriptableDataSetConfig config = new ScriptableDataSetConfig(languages[i], languages[i] + ":");
+			config.setInterpretSimpleExpressions(true);
+
+			ScriptableDataSet dataSet = new ScriptableDataSet(new DefaultDataSet(createTable(scripts[i])), config);
+
+			ScriptMetrics metrics = new ScriptMetrics();
+			dataSet.setEvaluationListener(metrics);
+
+			assertEquals(values[i], dataSet.getTable("location").getValue(0, "addr"));
+			assertEquals(languages[i], 1, metrics.getEvaluations(EvaluationPath.INTERPRETED));
+		}
+	}
+
+	/**
+	 * Test, that simple expressions are rewritten by preInvoke handlers, if
+	 * interpretation of simple expressions is requested.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void simpleExpressionWithPreInvokeHandler() throws Exception {
+
+		List<ScriptInvocationHandler> handlers = new ArrayList<ScriptInvocationHandler>();
+		handlers.add(new AbstractScriptInvocationHandler() {
+
+			public String getLanguageName() {
+				return "groovy";
+			}
+
+			@Override
+			public String preInvoke(String script) {
+				return script.replace("1024", "2048");
+			}
+		});
+
+		ScriptableDataSetConfig config = new ScriptableDataSetConfig("groovy", "groovy:", handlers);
+		config.setInterpretSimpleExpressions(true);
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(new DefaultDataSet(createTable("groovy:42*1024")), config);
+
+		assertEquals(86016, dataSet.getTable("location").getValue(0, "addr"));
+	}
+
+	/**
+	 * Test, that values memoized in columnar mode are read again without
+	 * evaluation.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void columnarMemoization() throws Exception {
+
+		Map<String, String> scripts = new HashMap<String, String>();
+		scripts.put("num", "groovy:rowIndex + 1");
+		scripts.put("addr", "groovy:'Street ' + rowIndex");
+		scripts.put("date", "groovy:new Date(rowIndex * 1000L)");
+
+		Column[] columns = new Column[] { new Column("num", DataType.INTEGER), new Column("addr", DataType.VARCHAR), new Column("date", DataType.TIMESTAMP) };
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(
+			new DefaultDataSet(new GeneratedTable("location", columns, 100, scripts)),
+			new ScriptableDataSetConfig("groovy", "groovy:"));
+		dataSet.setMemoizeValues(true);
+		dataSet.setCoerceValues(true);
+		dataSet.setColumnarMemoization(true);
+
+		ScriptMetrics metrics = new ScriptMetrics();
+		dataSet.setEvaluationListener(metrics);
+
+		ITable table = dataSet.getTable("location");
+
+		for (int i = 0; i < 2; i++) {
+			for (int row = 0; row < 100; row++) {
+				assertEquals(row + 1, table.getValue(row, "num"));
+				assertEquals("Street " + row, table.getValue(row, "addr"));
+				assertEquals(new Timestamp(row * 1000L), table.getValue(row, "date"));
+			}
+		}
+
+		assertEquals(300, metrics.getStatisticsByPrefix("groovy:").getCount());
+		assertEquals(300, metrics.getMemoizedValueReads());
+	}
+
+	/**
+	 * Test, that pipelined iterators return the tables in their original
+	 * order and raise a failing script's exception at the failing table.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void pipelinedIteration() throws Exception {
+
+		ITable[] tables = new ITable[5];
+
+		for (int i = 0; i < tables.length; i++) {
+
+			DefaultTable table = new DefaultTable("table" + i, new Column[] { new Column("addr", DataType.VARCHAR) });
+
+			for (int row = 0; row < 10; row++) {
+				table.addRow(new Object[] { i == 3 && row == 5 ? "groovy:throw new IllegalStateException()" : "groovy:'Street ' + rowIndex" });
+			}
+
+			tables[i] = table;
+		}
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(new DefaultDataSet(tables), new ScriptableDataSetConfig("groovy", "groovy:"));
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		dataSet.setMemoizeValues(true);
+		dataSet.setPipelineExecutor(executor);
+		dataSet.setPipelineDepth(2);
+
+		try {
+			ITableIterator iterator = dataSet.iterator();
+
+			for (int i = 0; i < tables.length; i++) {
+
+				assertTrue(iterator.next());
+				assertEquals("table" + i, iterator.getTableMetaData().getTableName());
+
+				if (i == 3) {
+					try {
+						iterator.getTable();
+						fail("Evaluation of table3 should fail.");
+					}
+					catch (RuntimeException e) {
+						// expected
+					}
+				}
+				else {
+					assertEquals("Street 9", iterator.getTable().getValue(9, "addr"));
+				}
+			}
+
+			assertFalse(iterator.next());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Test, that pipelined iterators don't evaluate tables in advance, if
+	 * memoization isn't enabled.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void pipeliningWithoutMemoization() throws Exception {
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(
+			new DefaultDataSet(createTable("groovy:'Street ' + rowIndex", "groovy:'Street ' + rowIndex")),
+			new ScriptableDataSetConfig("groovy", "groovy:"));
+
+		ScriptMetrics metrics = new ScriptMetrics();
+		dataSet.setEvaluationListener(metrics);
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		dataSet.setPipelineExecutor(executor);
+
+		try {
+			ITable table = getFirstTable(dataSet);
+
+			assertNull(metrics.getStatisticsByPrefix("groovy:"));
+			assertEquals("Street 1", table.getValue(1, "addr"));
+			assertEquals(1, metrics.getStatisticsByPrefix("groovy:").getCount());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Test, that streamed data sets are iterated without pipelining, as their
+	 * tables can't be read once the iterator moved on.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void pipelinedStreamingDataSet() throws Exception {
+
+		final String xml = "<dataset><table0 addr=\"groovy:'Street ' + 0\"/><table1 addr=\"groovy:'Street ' + 1\"/></dataset>";
+
+		IDataSet streamingIteratorDataSet = new AbstractDataSet() {
+
+			@Override
+			protected ITableIterator createIterator(boolean reversed) throws DataSetException {
+				return new StreamingIterator(new FlatXmlProducer(new InputSource(new StringReader(xml))));
+			}
+		};
+
+		IDataSet[] wrappedDataSets = new IDataSet[] {
+			new StreamingDataSet(new FlatXmlProducer(new InputSource(new StringReader(xml)))), streamingIteratorDataSet };
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+
+		try {
+			for (IDataSet oneWrapped : wrappedDataSets) {
+
+				ScriptableDataSet dataSet = new ScriptableDataSet(oneWrapped, new ScriptableDataSetConfig("groovy", "groovy:"));
+				dataSet.setPipelineExecutor(executor);
+
+				ITableIterator iterator = dataSet.iterator();
+
+				for (int i = 0; i < 2; i++) {
+					assertTrue(iterator.next());
+					assertEquals("Street " + i, iterator.getTable().getValue(0, "addr"));
+				}
+
+				assertFalse(iterator.next());
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Test, that a data set with pipelined iterators can be inserted by DBUnit.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void pipelinedInsert() throws Exception {
+
+		Map<String, String> scripts = new HashMap<String, String>();
+		scripts.put("num", "groovy:rowIndex + 1");
+		scripts.put("addr", "groovy:'Street ' + row.NUM");
+		scripts.put("date", "groovy:new Date()");
+
+		Column[] columns = new Column[] { new Column("num", DataType.INTEGER), new Column("addr", DataType.VARCHAR), new Column("date", DataType.TIMESTAMP) };
+
+		ScriptableDataSet dataSet = new ScriptableDataSet(
+			new DefaultDataSet(new GeneratedTable("location", columns, 100, scripts)),
+			new ScriptableDataSetConfig("groovy", "groovy:"));
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		dataSet.setPipelineExecutor(executor);
+
+		try {
+			insertDataSetAndCreateResultSet(dataSet);
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		for (int i = 1; i <= 100; i++) {
+			assertNextRow(resultSet, i, "Street " + i, addDaysToToday(0));
+		}
+
+		assertFalse(resultSet.next());
+	}
+
+	private ITable getFirstTable(IDataSet dataSet) throws Exception {
+
+		ITableIterator iterator = dataSet.iterator();
+
+		assertTrue(iterator.next());
+
+		return iterator.getTable();
+	}
+
+	private DefaultTable createTable(Object... addresses) throws Exception {
+
+		DefaultTable table = new DefaultTable("location", new Column[] { new Column("addr", DataType.VARCHAR) });
+
+		for (Object oneAddress : addresses) {
+			table.addRow(new Object[] { oneAddress });
+		}
+
+		return table;
+	}
+
 	private void insertDataSetAndCreateResultSet(IDataSet dataSet)
 			throws DatabaseUnitException, SQLException {
 		
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2008-2009, Gunnar Morling
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.gmorling.scriptabledataset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+import org.junit.Test;
+
+/**
+ * Test for SimpleExpressionEvaluator, comparing its results with those of the
+ * real scripting engines.
+ * 
+ * @author Gunnar Morling
+ * 
+ */
+public class SimpleExpressionEvaluatorTest {
+
+	private ScriptEngineManager manager = new ScriptEngineManager();
+
+	/**
+	 * Test, that simple Groovy expressions yield the same values and types as
+	 * the Groovy engine.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void groovyExpressions() throws Exception {
+
+		assertSameResults("groovy",
+			"42", "42*1024", "3000000000", "3000000000*2", "2147483647+1", "2147483647*2", "-2147483648", "-42", "- 42", "-(3)",
+			"1-2*3", "(1+2)*3", "7%3", "-7%2", "1 - -1", "1.5", "-1.5", "1.5*2", "1+1.5", "1.0-1", "1.5 + 3000000000",
+			"'abc'*3", "\"abc\"", "'a$b'", "'a' + 'b'", "'a'+1", "'a'+null", "'a'+true", "'a'+1.50", "'a' + 'b' * 2", "''",
+			"null", "true", "false", "( 'x' )");
+	}
+
+	/**
+	 * Test, that simple Ruby expressions yield the same values and types as
+	 * the JRuby engine.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void rubyExpressions() throws Exception {
+
+		assertSameResults("jruby",
+			"42", "42*1024", "3000000000", "9223372036854775807", "-9223372036854775807", "-42", "- 3", "-(3)", "1-2*3", "(1+2)*3",
+			"7/2", "-7/2", "7/-2", "-7%2", "7%-2", "6%3", "1 - -1", "1.5", "1.5*2", "1+1.5", "7.0/2", "1.0/0", "-1.5",
+			"'abc'*3", "\"abc\"", "'a#b'", "'a'+'b'", "'abc'*0", "nil", "true", "false");
+	}
+
+	/**
+	 * Test, that simple JavaScript expressions yield the same values and types
+	 * as the JavaScript engine.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void javaScriptExpressions() throws Exception {
+
+		assertSameResults("javascript", "null", "true", "false", "'abc'", "\"abc\"", "'a' + 'b'", "('a') + \"b\"");
+	}
+
+	/**
+	 * Test, that all other expressions are left to the engine.
+	 * 
+	 * @throws Exception
+	 *             In case of any error.
+	 */
+	@Test
+	public void expressionsLeftToEngine() throws Exception {
+
+		assertNotSimple("groovy",
+			"x", "row.ID", "new Date()", "10/4", "1.5%1", "1--1", "42L", "1e3", "010", "1.abs()", "99999999999999999999",
+			"\"a${1}\"", "'a\\tb'", "1 + 'a'", "'a' - 'b'", "'a' * -1", "'a' * 2L", "1\n+2", "42;", "(1", "", "-", "true + 1");
+
+		assertNotSimple("jruby",
+			"nil.to_s", "-9223372036854775808", "1/0", "1%0", "9223372036854775807+1", "-9223372036854775807-2", "(-9223372036854775807-1)*-1", "1.5%1", "'a'+1", "1+'a'",
+			"\"a#{1}\"", "'a' 'b'", "'a'*1.5", "2**3", "1\n+2", "null");
+
+		assertNotSimple("javascript", "42", "1.5", "'a'+1", "'a'*2", "undefined", "'a\\nb'");
+
+		assertNull(SimpleExpressionEvaluator.forLanguage("python"));
+	}
+
+	private void assertSameResults(String languageName, String... scripts) throws Exception {
+
+		ScriptEngine engine = manager.getEngineByName(languageName);
+		SimpleExpressionEvaluator evaluator = SimpleExpressionEvaluator.forLanguage(languageName);
+
+		for (String oneScript : scripts) {
+
+			Object expected = engine.eval(oneScript);
+			Object actual = evaluator.evaluate(oneScript);
+
+			assertFalse(oneScript, actual == SimpleExpressionEvaluator.NOT_SIMPLE);
+			assertEquals(oneScript, expected, actual);
+			assertEquals(oneScript, expected != null ? expected.getClass() : null, actual != null ? actual.getClass() : null);
+		}
+	}
+
+	private void assertNotSimple(String languageName, String... scripts) {
+
+		SimpleExpressionEvaluator evaluator = SimpleExpressionEvaluator.forLanguage(languageName);
+
+		for (String oneScript : scripts) {
+			assertSame(oneScript, SimpleExpressionEvaluator.NOT_SIMPLE, evaluator.evaluate(oneScript));
+		}
+	}
+}
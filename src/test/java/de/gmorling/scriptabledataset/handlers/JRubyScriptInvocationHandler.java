@@ -20,17 +20,17 @@ import javax.script.ScriptEngine;
 
 import org.jruby.RubyObject;
 
-import de.gmorling.scriptabledataset.handlers.ScriptInvocationHandler;
-
 /**
  * A <code>ScriptInvocationHandler</code> for JRuby scripts. It adds some
  * commonly used imports to the begin of each script and converts Objects
- * returned by the scripting engine into types processable by DBUnit.
+ * returned by the scripting engine into types processable by DBUnit. As the
+ * imports don't change the value of literals, simple expressions may be
+ * interpreted without them.
  * 
  * @author Gunnar Morling
  * 
  */
-public class JRubyScriptInvocationHandler implements ScriptInvocationHandler {
+public class JRubyScriptInvocationHandler implements LiteralPreservingInvocationHandler {
 
 	private ScriptEngine engine;
 